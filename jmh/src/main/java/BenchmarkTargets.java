@@ -0,0 +1,143 @@
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.DoubleSupplier;
+
+// What each JMH benchmark in the benchmarks package runs. JMH won't take benchmarks in the
+// default package, and a class in a named package can't refer to the classes in this one, so the
+// benchmarks look this class up by name once, in their setup, and from then on only call the
+// Callables (or for single rows, DoubleSuppliers, so the label isn't boxed) it hands them.
+//
+// A dataset is "wall-following" (its TRAIN and TEST files) or "synthetic-<rows>": Benchmark's
+// synthetic data with that many training rows and 10000 test rows. The ensemble only takes two
+// classes, labelled -1 and 1, so on wall-following it gets the first class against the rest
+// (Benchmark.binary); the synthetic data is labelled that way already.
+// Every build runs Benchmark.EPOCHS epochs, as in Benchmark; threads is handed to every
+// classifier that takes it, 0 for all the processors.
+public class BenchmarkTargets {
+
+    // the builds, by benchmark name; each returns what it trained
+    public static Map<String, Object> training(String dataset, int threads) throws Exception {
+        Instances[] data = load(dataset);
+        Instances train = data[0];
+        Instances binaryTrain = data[2];
+        int numThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+
+        Map<String, Object> targets = new HashMap<>();
+        targets.put("LinearPerceptron.buildClassifier", (Callable<Object>) () -> {
+            LinearPerceptron perceptron = perceptron();
+            perceptron.buildClassifier(train);
+            return perceptron;
+        });
+        for (boolean online : new boolean[]{true, false}) {
+            for (boolean standardise : new boolean[]{false, true}) {
+                targets.put("Enhanced.buildClassifier " + (online ? "online" : "offline") + (standardise ? " std" : ""),
+                        (Callable<Object>) () -> {
+                            EnhancedLinearPerceptron enhanced = enhanced(online, standardise, false, numThreads);
+                            enhanced.buildClassifier(train);
+                            return enhanced;
+                        });
+            }
+        }
+        targets.put("Enhanced.buildClassifier cv std", (Callable<Object>) () -> {
+            EnhancedLinearPerceptron enhanced = enhanced(true, true, true, numThreads);
+            enhanced.buildClassifier(train);
+            return enhanced;
+        });
+        targets.put("Ensemble.buildClassifier", (Callable<Object>) () -> {
+            LinearPerceptronEnsemble ensemble = ensemble(numThreads);
+            ensemble.buildClassifier(binaryTrain, 0.5);
+            return ensemble;
+        });
+        return targets;
+    }
+
+    // the predictions of models trained here, once, by benchmark name; single-row cases go
+    // through the test rows in turn
+    public static Map<String, Object> inference(String dataset, int threads) throws Exception {
+        Instances[] data = load(dataset);
+        Instances test = data[1];
+        Instances binaryTest = data[3];
+        int numThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+
+        LinearPerceptron perceptron = perceptron();
+        perceptron.buildClassifier(data[0]);
+        EnhancedLinearPerceptron enhanced = enhanced(true, true, false, numThreads);
+        enhanced.buildClassifier(data[0]);
+        LinearPerceptronEnsemble ensemble = ensemble(numThreads);
+        ensemble.buildClassifier(data[2], 0.5);
+
+        Rows rows = new Rows(test);
+        Rows binaryRows = new Rows(binaryTest);
+        Map<String, Object> targets = new HashMap<>();
+        targets.put("LinearPerceptron.classifyInstance", (DoubleSupplier) () -> perceptron.classifyInstance(rows.next()));
+        targets.put("LinearPerceptron.classifyBatch", (Callable<Object>) () -> perceptron.classifyBatch(test));
+        targets.put("Enhanced.classifyInstance std", (DoubleSupplier) () -> enhanced.classifyInstance(rows.next()));
+        targets.put("Enhanced.classifyBatch std", (Callable<Object>) () -> enhanced.classifyBatch(test));
+        targets.put("Ensemble.classifyInstance", (DoubleSupplier) () -> ensemble.classifyInstance(binaryRows.next()));
+        targets.put("Ensemble.classifyBatch", (Callable<Object>) () -> ensemble.classifyBatch(binaryTest));
+        return targets;
+    }
+
+    // {train, test, two-class train, two-class test}
+    private static Instances[] load(String dataset) throws Exception {
+        if (dataset.equals("wall-following")) {
+            Instances train = Main.loadData("wall-following/wall-following_TRAIN.arff");
+            train.setClassIndex(train.numAttributes() - 1);
+            Instances test = Main.loadData("wall-following/wall-following_TEST.arff");
+            test.setClassIndex(test.numAttributes() - 1);
+            return new Instances[]{train, test, Benchmark.binary(train), Benchmark.binary(test)};
+        }
+        if (dataset.startsWith("synthetic-")) {
+            int numRows = Integer.parseInt(dataset.substring("synthetic-".length()));
+            Instances train = Benchmark.synthetic(numRows, 24, 1);
+            Instances test = Benchmark.synthetic(10000, 24, 2);
+            return new Instances[]{train, test, train, test};
+        }
+        throw new IllegalArgumentException("Unknown dataset " + dataset);
+    }
+
+    private static LinearPerceptron perceptron() {
+        LinearPerceptron perceptron = new LinearPerceptron();
+        perceptron.setMaxEpochs(Benchmark.EPOCHS);
+        return perceptron;
+    }
+
+    private static EnhancedLinearPerceptron enhanced(boolean online, boolean standardise, boolean crossValidate, int threads) {
+        EnhancedLinearPerceptron enhanced = new EnhancedLinearPerceptron();
+        enhanced.setOnline(online);
+        enhanced.setStandardise(standardise);
+        enhanced.setCrossValidate(crossValidate);
+        enhanced.setNumThreads(threads);
+        enhanced.setSeed(0);
+        enhanced.setMaxEpochs(Benchmark.EPOCHS);
+        return enhanced;
+    }
+
+    private static LinearPerceptronEnsemble ensemble(int threads) {
+        LinearPerceptronEnsemble ensemble = new LinearPerceptronEnsemble();
+        ensemble.setNumThreads(threads);
+        ensemble.setSeed(0);
+        ensemble.setMaxEpochs(Benchmark.EPOCHS);
+        return ensemble;
+    }
+
+    // the rows of a set of instances, one after another, round and round
+    private static class Rows {
+        private final Instances instances;
+        private int next = 0;
+
+        Rows(Instances instances) {
+            this.instances = instances;
+        }
+
+        Instance next() {
+            Instance instance = instances.get(next);
+            next = next == instances.numInstances() - 1 ? 0 : next + 1;
+            return instance;
+        }
+    }
+}
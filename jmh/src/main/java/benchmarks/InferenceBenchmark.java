@@ -0,0 +1,84 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+// Predictions of models trained once per fork: one test row per operation for classifyInstance,
+// the whole test set (10000 rows for the synthetic datasets) for classifyBatch.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class InferenceBenchmark {
+
+    @Param({"wall-following", "synthetic-1000000"})
+    public String dataset;
+
+    // threads for the classifiers that take them, 0 for all the processors
+    @Param("0")
+    public int threads;
+
+    private DoubleSupplier linearPerceptronInstance;
+    private Callable<Object> linearPerceptronBatch;
+    private DoubleSupplier enhancedInstance;
+    private Callable<Object> enhancedBatch;
+    private DoubleSupplier ensembleInstance;
+    private Callable<Object> ensembleBatch;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Targets targets = new Targets("inference", dataset, threads);
+        linearPerceptronInstance = targets.get("LinearPerceptron.classifyInstance", DoubleSupplier.class);
+        linearPerceptronBatch = targets.get("LinearPerceptron.classifyBatch", Callable.class);
+        enhancedInstance = targets.get("Enhanced.classifyInstance std", DoubleSupplier.class);
+        enhancedBatch = targets.get("Enhanced.classifyBatch std", Callable.class);
+        ensembleInstance = targets.get("Ensemble.classifyInstance", DoubleSupplier.class);
+        ensembleBatch = targets.get("Ensemble.classifyBatch", Callable.class);
+    }
+
+    @Benchmark
+    public double linearPerceptronClassifyInstance() {
+        return linearPerceptronInstance.getAsDouble();
+    }
+
+    @Benchmark
+    public Object linearPerceptronClassifyBatch() throws Exception {
+        return linearPerceptronBatch.call();
+    }
+
+    @Benchmark
+    public double enhancedClassifyInstance() {
+        return enhancedInstance.getAsDouble();
+    }
+
+    @Benchmark
+    public Object enhancedClassifyBatch() throws Exception {
+        return enhancedBatch.call();
+    }
+
+    @Benchmark
+    public double ensembleClassifyInstance() {
+        return ensembleInstance.getAsDouble();
+    }
+
+    @Benchmark
+    public Object ensembleClassifyBatch() throws Exception {
+        return ensembleBatch.call();
+    }
+}
@@ -0,0 +1,27 @@
+package benchmarks;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+// Reaches the classifiers through BenchmarkTargets, which is in the default package and so can
+// only be looked up by name from here (see BenchmarkTargets).
+final class Targets {
+
+    private final Map<String, Object> targets;
+
+    // kind is "training" or "inference", the BenchmarkTargets method to ask
+    @SuppressWarnings("unchecked")
+    Targets(String kind, String dataset, int threads) throws Exception {
+        Method method = Class.forName("BenchmarkTargets").getMethod(kind, String.class, int.class);
+        targets = (Map<String, Object>) method.invoke(null, dataset, threads);
+    }
+
+    // the target of the given name, a Callable or a DoubleSupplier
+    <T> T get(String name, Class<T> type) {
+        Object target = targets.get(name);
+        if (!type.isInstance(target)) {
+            throw new IllegalArgumentException("No " + type.getSimpleName() + " benchmark target " + name);
+        }
+        return type.cast(target);
+    }
+}
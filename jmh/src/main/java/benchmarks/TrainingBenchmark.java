@@ -0,0 +1,92 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+// One build of each classifier per operation, on the dataset loaded once per fork. Each build
+// runs a fixed number of epochs (none of the datasets is separable), so its time grows with the
+// rows rather than with how long it takes to converge. The synthetic datasets go up to a million
+// rows; pick a smaller one with -p dataset=synthetic-100000.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TrainingBenchmark {
+
+    @Param({"wall-following", "synthetic-1000000"})
+    public String dataset;
+
+    // threads for the classifiers that take them, 0 for all the processors
+    @Param("0")
+    public int threads;
+
+    private Callable<Object> linearPerceptron;
+    private Callable<Object> enhancedOnline;
+    private Callable<Object> enhancedOnlineStandardised;
+    private Callable<Object> enhancedOffline;
+    private Callable<Object> enhancedOfflineStandardised;
+    private Callable<Object> enhancedCrossValidated;
+    private Callable<Object> ensemble;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Targets targets = new Targets("training", dataset, threads);
+        linearPerceptron = targets.get("LinearPerceptron.buildClassifier", Callable.class);
+        enhancedOnline = targets.get("Enhanced.buildClassifier online", Callable.class);
+        enhancedOnlineStandardised = targets.get("Enhanced.buildClassifier online std", Callable.class);
+        enhancedOffline = targets.get("Enhanced.buildClassifier offline", Callable.class);
+        enhancedOfflineStandardised = targets.get("Enhanced.buildClassifier offline std", Callable.class);
+        enhancedCrossValidated = targets.get("Enhanced.buildClassifier cv std", Callable.class);
+        ensemble = targets.get("Ensemble.buildClassifier", Callable.class);
+    }
+
+    @Benchmark
+    public Object linearPerceptron() throws Exception {
+        return linearPerceptron.call();
+    }
+
+    @Benchmark
+    public Object enhancedOnline() throws Exception {
+        return enhancedOnline.call();
+    }
+
+    @Benchmark
+    public Object enhancedOnlineStandardised() throws Exception {
+        return enhancedOnlineStandardised.call();
+    }
+
+    @Benchmark
+    public Object enhancedOffline() throws Exception {
+        return enhancedOffline.call();
+    }
+
+    @Benchmark
+    public Object enhancedOfflineStandardised() throws Exception {
+        return enhancedOfflineStandardised.call();
+    }
+
+    @Benchmark
+    public Object enhancedCrossValidated() throws Exception {
+        return enhancedCrossValidated.call();
+    }
+
+    @Benchmark
+    public Object ensemble() throws Exception {
+        return ensemble.call();
+    }
+}
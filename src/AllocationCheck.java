@@ -0,0 +1,79 @@
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+import java.lang.management.ManagementFactory;
+
+// Checks that LinearPerceptronEnsemble.classifyInstance allocates nothing once warmed up: each
+// case trains an ensemble, classifies its rows until the JIT has compiled the path, then counts
+// the bytes the calling thread allocates over CALLS more calls. Any case that allocates a byte
+// or more per call fails, and the process exits with status 1, so a change to the ensemble's
+// scoring can be checked against it:
+//
+//   java AllocationCheck
+//
+// The cases cover dense and sparse instances, and both layouts of the fused matrix (members
+// keeping half the attributes, stored sparse, and all of them, stored dense).
+public class AllocationCheck {
+
+    private static final int WARMUP_CALLS = 1000000;
+    private static final int CALLS = 1000000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // results of every call, folded together so they're used
+    private static double sink;
+
+    public static void main(String[] args) throws Exception {
+        Instances part2 = Main.loadData("training-data/part2.arff");
+        part2.setClassIndex(part2.numAttributes() - 1);
+        Instances wallFollowing = Main.loadData("wall-following/wall-following_TRAIN.arff");
+        wallFollowing.setClassIndex(wallFollowing.numAttributes() - 1);
+        Instances binary = Benchmark.binary(wallFollowing);
+
+        System.out.printf("%-36s %20s %12s%n", "case", "attributeProportion", "bytes/call");
+        boolean passed = true;
+        for (double attributeProportion : new double[]{0.5, 0}) {
+            passed &= check("part2", part2, attributeProportion);
+            passed &= check("part2 (sparse)", sparse(part2), attributeProportion);
+            passed &= check("wall-following (binary)", binary, attributeProportion);
+            passed &= check("wall-following (binary, sparse)", sparse(binary), attributeProportion);
+        }
+        System.out.println("(sink " + sink + ")");
+        if (!passed) {
+            System.out.println("classifyInstance allocates");
+            System.exit(1);
+        }
+        System.out.println("classifyInstance allocates nothing");
+    }
+
+    private static boolean check(String name, Instances instances, double attributeProportion) throws Exception {
+        LinearPerceptronEnsemble ensemble = new LinearPerceptronEnsemble();
+        ensemble.setSeed(0);
+        ensemble.buildClassifier(instances, attributeProportion);
+
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            sink += ensemble.classifyInstance(instances.get(i % instances.numInstances()));
+        }
+
+        long thread = Thread.currentThread().getId();
+        long before = THREADS.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < CALLS; i++) {
+            sink += ensemble.classifyInstance(instances.get(i % instances.numInstances()));
+        }
+        long perCall = (THREADS.getThreadAllocatedBytes(thread) - before) / CALLS;
+
+        System.out.printf("%-36s %20.1f %12d%s%n", name, attributeProportion, perCall, perCall > 0 ? "  FAILED" : "");
+        return perCall == 0;
+    }
+
+    // the same instances as SparseInstance
+    private static Instances sparse(Instances instances) {
+        Instances sparse = new Instances(instances, instances.numInstances());
+        for (Instance instance : instances) {
+            sparse.add(new SparseInstance(instance));
+        }
+        return sparse;
+    }
+}
@@ -0,0 +1,279 @@
+import weka.classifiers.AbstractClassifier;
+import weka.core.Capabilities;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// A perceptron that predicts with the average of the weights it held after every row it visited,
+// rather than with the last ones. The average hardly moves once a few passes are done, so it
+// usually gives a usable model after 1-3 epochs even when the data isn't separable and the
+// plain perceptron's weights keep jumping around.
+//
+// The average is kept lazily: besides the weights, every update is also added to a sum scaled by
+// the number of rows visited so far, and at the end the average is weights - sum / count. So the
+// averaging only costs O(d) per mistake, not O(d) per row.
+public class AveragedLinearPerceptron extends AbstractClassifier {
+
+    // the averaged weights used for prediction
+    private double[] weights;
+    // one averaged weight vector per class when there are more than two classes, otherwise null
+    private double[][] classWeights;
+
+    private double learningRate = 1;
+
+    private int numAttributes;
+    private int bias = 0;
+    private int stoppingCondition = 0;
+    // the average settles within a few passes, so far fewer are allowed than for LinearPerceptron
+    private int maxEpochs = 3;
+    private int plateauPatience = 0;
+
+    private double[] startingWeights;
+    private boolean weightsSet = false;
+    private boolean training = true;
+
+    // one entry per epoch of the last build
+    private List<EpochMonitor.EpochStatistics> epochStatistics = new ArrayList<>();
+
+    @Override
+    public void buildClassifier(Instances instances) throws Exception {
+        getCapabilities().testWithFail(instances);
+
+        buildClassifier(new FeatureMatrix(instances));
+    }
+
+    void buildClassifier(FeatureMatrix matrix) {
+        this.numAttributes = matrix.numFeatures + 1;
+        training = true;
+
+        //set default value for weights if not specified
+        if (!weightsSet) {
+            startingWeights = new double[numAttributes - 1];
+            Arrays.fill(startingWeights, 1);
+        }
+
+        // more than two classes: one perceptron per class, each against the rest
+        int numVectors = matrix.numClasses > 2 ? matrix.numClasses : 1;
+        double[][] current = new double[numVectors][];
+        for (int c = 0; c < numVectors; c++) {
+            current[c] = startingWeights.clone();
+        }
+
+        EpochMonitor monitor = new EpochMonitor(matrix.numRows, maxEpochs, plateauPatience, 0);
+        double[][] averaged = innerBuild(new MatrixView(matrix), current, numVectors > 1, monitor);
+        epochStatistics = monitor.statistics();
+
+        if (numVectors > 1) {
+            classWeights = averaged;
+            weights = null;
+        } else {
+            classWeights = null;
+            weights = averaged[0];
+        }
+        training = false;
+    }
+
+    // Runs the perceptron on the current weights (one vector, or one per class when oneVsRest)
+    // and returns their average over every row visit. Stops after a full pass with no mistakes,
+    // once stoppingCondition rows have been visited, or when the monitor says so.
+    private double[][] innerBuild(MatrixView view, double[][] current, boolean oneVsRest, EpochMonitor monitor) {
+        // each update times the number of rows visited before it
+        double[][] sums = new double[current.length][numAttributes - 1];
+        // rows visited so far, plus one for the starting weights
+        long count = 1;
+
+        int cont = 0;
+        int x = 0;
+        int runNum = 1;
+        boolean stopped = false;
+
+        double t;
+        double result;
+        double adjustment;
+
+        while (cont != view.numRows && runNum != stoppingCondition) {
+            boolean mistake = false;
+            int classIndex = view.classIndex(x);
+            for (int c = 0; c < current.length; c++) {
+                result = classifier(current[c], view, x);
+                t = oneVsRest ? (c == classIndex ? 1 : -1) : view.target(x);
+                if (result != t) {
+                    mistake = true;
+                    adjustment = (0.5 * (learningRate)) * (t - result);
+                    view.axpy(current[c], adjustment, x);
+                    view.axpy(sums[c], adjustment * count, x);
+                }
+            }
+            if (mistake) {
+                cont = 0;
+                monitor.mistake();
+            } else {
+                cont++;
+            }
+            count++;
+
+            if (x == view.numRows - 1) {
+                stopped = monitor.endEpoch(Double.NaN);
+                if (stopped) {
+                    break;
+                }
+                x = 0;
+            } else {
+                x++;
+            }
+
+            runNum++;
+        }
+        // the pass that was cut short
+        if (!stopped && x != 0) {
+            monitor.endEpoch(Double.NaN, x);
+        }
+        if (runNum == stoppingCondition) {
+            System.out.println("Process cancelled as reached max number of iterations");
+        }
+
+        for (int c = 0; c < current.length; c++) {
+            for (int xj = 0; xj < numAttributes - 1; xj++) {
+                current[c][xj] = current[c][xj] - sums[c][xj] / count;
+            }
+        }
+        return current;
+    }
+
+    private double classifier(double[] weights, MatrixView view, int x) {
+        return sign(view.dot(weights, x));
+    }
+
+    public double classifyInstance(Instance instance) {
+        if (classWeights != null) {
+            int best = 0;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int c = 0; c < classWeights.length; c++) {
+                double score = 0;
+                for (int i = 0; i < numAttributes - 1; i++) {
+                    score += classWeights[c][i] * instance.value(i);
+                }
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = c;
+                }
+            }
+            return best;
+        }
+        double result = 0;
+        for (int i = 0; i < numAttributes - 1; i++) {
+            result += weights[i] * instance.value(i);
+        }
+        return sign(result);
+    }
+
+    // classifies every instance in one call
+    public double[] classifyBatch(Instances instances) {
+        double[] labels = new double[instances.numInstances()];
+        for (int row = 0; row < labels.length; row++) {
+            labels[row] = classifyInstance(instances.get(row));
+        }
+        return labels;
+    }
+
+    private double sign(double result) {
+        if (training) {
+            result = result + bias;
+        }
+
+        if (result < 0) {
+            return -1;
+        } else if (result > 0) {
+            return 1;
+        } else {
+            return 0;
+        }
+    }
+
+    // an immutable copy of the trained model that can be shared between threads
+    public CompiledModel compile() {
+        if (classWeights != null) {
+            return new CompiledModel(classWeights, new int[classWeights.length][], null, null, true);
+        }
+        return new CompiledModel(new double[][]{weights}, new int[][]{null}, null, null, false);
+    }
+
+    @Override
+    public Capabilities getCapabilities() {
+        Capabilities result = super.getCapabilities();
+        result.disableAll();
+
+        // attributes
+        result.enable(Capabilities.Capability.NUMERIC_ATTRIBUTES);
+        result.enable(Capabilities.Capability.BINARY_ATTRIBUTES);
+
+        // class
+        result.enable(Capabilities.Capability.NUMERIC_CLASS);
+        result.enable(Capabilities.Capability.NOMINAL_CLASS);
+
+        return result;
+    }
+
+
+    // setters and getters
+    public void setLearningRate(double learningRate) {
+        this.learningRate = learningRate;
+    }
+
+    public void setWeights(double[] weights) {
+        this.startingWeights = weights;
+        weightsSet = true;
+    }
+
+    public void setBias(int bias) {
+        this.bias = bias;
+    }
+
+    public void setStoppingCondition(int stoppingCondition) {
+        this.stoppingCondition = stoppingCondition;
+    }
+
+    public void setMaxEpochs(int maxEpochs) {
+        this.maxEpochs = maxEpochs;
+    }
+
+    public void setPlateauPatience(int plateauPatience) {
+        this.plateauPatience = plateauPatience;
+    }
+
+    public double getLearningRate() {
+        return learningRate;
+    }
+
+    public double[] getWeights() {
+        return weights;
+    }
+
+    public double[][] getClassWeights() {
+        return classWeights;
+    }
+
+    public int getBias() {
+        return bias;
+    }
+
+    public int getStoppingCondition() {
+        return stoppingCondition;
+    }
+
+    public int getMaxEpochs() {
+        return maxEpochs;
+    }
+
+    public int getPlateauPatience() {
+        return plateauPatience;
+    }
+
+    // mistakes and time of each epoch of the last build
+    public List<EpochMonitor.EpochStatistics> getEpochStatistics() {
+        return epochStatistics;
+    }
+}
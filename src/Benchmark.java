@@ -0,0 +1,312 @@
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.MakeIndicator;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// A quick check of the training and inference hot paths that runs without the build: each
+// benchmark is run a few times to warm the JIT up, then measured over several more runs, and the
+// table gives the mean and spread of the time per run and the bytes allocated per run. It also
+// prints how the quantized models and hogwild training compare with the originals. The JMH
+// benchmarks (the jmh subproject, gradle :jmh:jmh) cover the same paths with forked JVMs,
+// blackholes and the GC profiler, and are the ones to trust for a timing.
+//
+// The allocation figure only counts the thread that ran the benchmark, so work handed to a pool
+// (cross validation, the ensemble members, parallel offline epochs) isn't in it; set threads to 1
+// to have everything counted, or use the JMH benchmarks.
+//
+//   java Benchmark [syntheticRows] [threads] [filter]
+//
+// syntheticRows (default 100000) sizes the synthetic dataset, which can go up to millions of rows
+// with enough heap (-Xmx); threads (default: all processors) is handed to every classifier that
+// takes one; only benchmarks whose name contains filter are run.
+public class Benchmark {
+
+    private static final int WARMUP_RUNS = 3;
+    private static final int MEASURED_RUNS = 5;
+    // every training benchmark runs this many epochs (none of the datasets is separable), so the
+    // time of a build grows with the number of rows rather than with how long it takes to converge
+    static final int EPOCHS = 10;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // one benchmark; the result is kept so the JIT can't drop the work as unused
+    interface Case {
+        Object run() throws Exception;
+    }
+
+    private final String filter;
+    private final int threads;
+    // results of every run, folded together so they're used
+    private long sink;
+
+    Benchmark(String filter, int threads) {
+        this.filter = filter;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int syntheticRows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        String filter = args.length > 2 ? args[2] : "";
+
+        Instances train = Main.loadData("wall-following/wall-following_TRAIN.arff");
+        train.setClassIndex(train.numAttributes() - 1);
+        Instances test = Main.loadData("wall-following/wall-following_TEST.arff");
+        test.setClassIndex(test.numAttributes() - 1);
+
+        Benchmark benchmark = new Benchmark(filter, threads);
+        System.out.printf("%-40s %-28s %12s %10s %16s%n", "benchmark", "dataset", "ms/op", "+-", "bytes/op");
+
+        benchmark.runAll("wall-following", train, test);
+        // the ensemble only takes two classes
+        benchmark.runAll("wall-following (binary)", binary(train), binary(test));
+        benchmark.runAll("synthetic " + syntheticRows + "x24", synthetic(syntheticRows, 24, 1), synthetic(10000, 24, 2));
+
+        System.out.println("(sink " + benchmark.sink + ")");
+    }
+
+    private void runAll(String dataset, Instances train, Instances test) throws Exception {
+        boolean binary = train.numClasses() == 2;
+
+        double serial = run("LinearPerceptron.buildClassifier", dataset, () -> {
+            LinearPerceptron perceptron = new LinearPerceptron();
+            perceptron.setMaxEpochs(EPOCHS);
+            perceptron.buildClassifier(train);
+            return perceptron.getWeights();
+        });
+        // hogwild needs at least two threads to run at all
+        int hogwildThreads = Math.max(2, threads);
+        double hogwild = run("LinearPerceptron.buildClassifier hogwild", dataset, () -> {
+            LinearPerceptron perceptron = hogwild(hogwildThreads);
+            perceptron.buildClassifier(train);
+            return perceptron.getWeights();
+        });
+        if (!Double.isNaN(hogwild)) {
+            LinearPerceptron serialPerceptron = new LinearPerceptron();
+            serialPerceptron.setMaxEpochs(EPOCHS);
+            serialPerceptron.buildClassifier(train);
+            LinearPerceptron hogwildPerceptron = hogwild(hogwildThreads);
+            hogwildPerceptron.buildClassifier(train);
+            System.out.printf("  hogwild on %d threads: %.2fx the serial speed, test accuracy %.2f%% against %.2f%% serially%n",
+                    hogwildThreads, serial / hogwild, 100 * accuracy(hogwildPerceptron.classifyBatch(test), test),
+                    100 * accuracy(serialPerceptron.classifyBatch(test), test));
+        }
+        for (boolean online : new boolean[]{true, false}) {
+            for (boolean standardise : new boolean[]{false, true}) {
+                run("Enhanced.buildClassifier " + (online ? "online" : "offline") + (standardise ? " std" : ""),
+                        dataset, () -> {
+                            EnhancedLinearPerceptron enhanced = enhanced(online, standardise, false);
+                            enhanced.buildClassifier(train);
+                            return enhanced.getWeights();
+                        });
+            }
+        }
+        run("Enhanced.buildClassifier cv std", dataset, () -> {
+            EnhancedLinearPerceptron enhanced = enhanced(true, true, true);
+            enhanced.buildClassifier(train);
+            return enhanced.getWeights();
+        });
+        if (binary) {
+            run("Ensemble.buildClassifier", dataset, () -> {
+                LinearPerceptronEnsemble ensemble = ensemble();
+                ensemble.buildClassifier(train, 0.5);
+                return ensemble.classValues;
+            });
+        }
+
+        // inference on models trained once up front
+        LinearPerceptron perceptron = new LinearPerceptron();
+        perceptron.setMaxEpochs(EPOCHS);
+        perceptron.buildClassifier(train);
+        EnhancedLinearPerceptron enhanced = enhanced(true, true, false);
+        enhanced.buildClassifier(train);
+        LinearPerceptronEnsemble ensemble = null;
+        if (binary) {
+            ensemble = ensemble();
+            ensemble.buildClassifier(train, 0.5);
+        }
+        Instance row = test.get(0);
+
+        run("LinearPerceptron.classifyInstance", dataset, () -> perceptron.classifyInstance(row));
+        run("LinearPerceptron.classifyBatch", dataset, () -> perceptron.classifyBatch(test));
+        run("Enhanced.classifyInstance std", dataset, () -> enhanced.classifyInstance(row));
+        run("Enhanced.classifyBatch std", dataset, () -> enhanced.classifyBatch(test));
+        if (ensemble != null) {
+            LinearPerceptronEnsemble trained = ensemble;
+            run("Ensemble.classifyInstance", dataset, () -> trained.classifyInstance(row));
+            run("Ensemble.classifyBatch", dataset, () -> trained.classifyBatch(test));
+
+            // the same ensemble frozen, and quantized, scoring the raw rows
+            double[][] rows = new double[test.numInstances()][];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = test.get(i).toDoubleArray();
+            }
+            CompiledModel compiled = trained.compile();
+            run("Compiled.classifyBatch", dataset, () -> compiled.classifyBatch(rows));
+            for (QuantizedModel.Precision precision : QuantizedModel.Precision.values()) {
+                QuantizedModel quantized = new QuantizedModel(compiled, precision);
+                run("Quantized.classifyBatch " + precision, dataset, () -> quantized.classifyBatch(rows));
+                if (precision.name().contains(filter) || "Quantized.classifyBatch".contains(filter)) {
+                    System.out.printf("  %s agrees with full precision on %.2f%% of the test rows, weights %d bytes%n",
+                            precision, 100 * quantized.agreement(compiled, rows), quantized.weightBytes());
+                }
+            }
+        }
+    }
+
+    // EPOCHS passes over each shard, the same number of row visits as the serial loop's EPOCHS
+    private static LinearPerceptron hogwild(int threads) {
+        LinearPerceptron perceptron = new LinearPerceptron();
+        perceptron.setMaxEpochs(EPOCHS);
+        perceptron.setHogwildThreads(threads);
+        return perceptron;
+    }
+
+    // share of the rows labelled with their class: the class index with more than two classes,
+    // otherwise -1 for the first class and 1 for the second, as LinearPerceptron answers
+    private static double accuracy(double[] labels, Instances instances) {
+        int right = 0;
+        for (int row = 0; row < labels.length; row++) {
+            double classValue = instances.get(row).classValue();
+            double expected = instances.numClasses() > 2 ? classValue : classValue == 0 ? -1 : 1;
+            if (labels[row] == expected) {
+                right++;
+            }
+        }
+        return labels.length == 0 ? 1 : (double) right / labels.length;
+    }
+
+    private EnhancedLinearPerceptron enhanced(boolean online, boolean standardise, boolean crossValidate) {
+        EnhancedLinearPerceptron enhanced = new EnhancedLinearPerceptron();
+        enhanced.setOnline(online);
+        enhanced.setStandardise(standardise);
+        enhanced.setCrossValidate(crossValidate);
+        enhanced.setNumThreads(threads);
+        enhanced.setSeed(0);
+        enhanced.setMaxEpochs(EPOCHS);
+        return enhanced;
+    }
+
+    private LinearPerceptronEnsemble ensemble() {
+        LinearPerceptronEnsemble ensemble = new LinearPerceptronEnsemble();
+        ensemble.setNumThreads(threads);
+        ensemble.setSeed(0);
+        ensemble.setMaxEpochs(EPOCHS);
+        return ensemble;
+    }
+
+    // Single calls (classifyInstance) are far too quick to time one at a time, so a run of a case
+    // repeats it, doubling the repeats until a run takes at least 10ms, and the time per call is
+    // reported. The doubling also serves as extra warm up. Returns the mean ms per run, NaN when
+    // the case is filtered out.
+    private double run(String name, String dataset, Case benchmark) throws Exception {
+        if (!name.contains(filter)) {
+            return Double.NaN;
+        }
+        int repeats = 1;
+        while (true) {
+            long start = System.nanoTime();
+            for (int r = 0; r < repeats; r++) {
+                consume(benchmark.run());
+            }
+            if (System.nanoTime() - start >= 10000000 || repeats >= 1 << 24) {
+                break;
+            }
+            repeats *= 2;
+        }
+
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            for (int r = 0; r < repeats; r++) {
+                consume(benchmark.run());
+            }
+        }
+
+        long thread = Thread.currentThread().getId();
+        double[] millis = new double[MEASURED_RUNS];
+        long allocated = 0;
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            long bytesBefore = THREADS.getThreadAllocatedBytes(thread);
+            long before = System.nanoTime();
+            for (int r = 0; r < repeats; r++) {
+                consume(benchmark.run());
+            }
+            millis[i] = (System.nanoTime() - before) / 1e6 / repeats;
+            allocated += THREADS.getThreadAllocatedBytes(thread) - bytesBefore;
+        }
+
+        double mean = Arrays.stream(millis).average().orElse(0);
+        double variance = Arrays.stream(millis).map(m -> (m - mean) * (m - mean)).sum() / Math.max(1, MEASURED_RUNS - 1);
+        System.out.printf("%-40s %-28s %12.4f %10.4f %16d%n", name, dataset, mean, Math.sqrt(variance),
+                allocated / ((long) MEASURED_RUNS * repeats));
+        return mean;
+    }
+
+    private void consume(Object result) {
+        if (result instanceof double[]) {
+            sink += Arrays.hashCode((double[]) result);
+        } else if (result != null) {
+            sink += result.hashCode();
+        }
+    }
+
+    // The class turned into "first class or not", so the two-class ensemble can run on it. The
+    // ensemble reads its class labels as numbers and its members vote -1 or 1, so the two values
+    // are labelled -1 (not the first class) and 1; with 0 and 1 every -1 vote would be thrown away.
+    // Every dataset here the ensemble is given is labelled the same way (see synthetic).
+    static Instances binary(Instances instances) throws Exception {
+        MakeIndicator indicator = new MakeIndicator();
+        indicator.setAttributeIndex("last");
+        indicator.setValueIndices("1");
+        indicator.setNumeric(false);
+        indicator.setInputFormat(instances);
+        Instances binary = Filter.useFilter(instances, indicator);
+        binary.setClassIndex(binary.numAttributes() - 1);
+        binary.renameAttributeValue(binary.classAttribute(), binary.classAttribute().value(0), "-1");
+        binary.renameAttributeValue(binary.classAttribute(), binary.classAttribute().value(1), "1");
+        return binary;
+    }
+
+    // Rows of uniform random features labelled -1 or 1 (see binary) by a fixed random hyperplane, with 5% of the
+    // labels flipped so the data isn't separable and training runs for all of its epochs.
+    static Instances synthetic(int numRows, int numFeatures, long seed) {
+        Random rand = new Random(seed);
+        double[] plane = new double[numFeatures];
+        Random planeRand = new Random(0);
+        for (int i = 0; i < numFeatures; i++) {
+            plane[i] = planeRand.nextGaussian();
+        }
+
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        for (int i = 0; i < numFeatures; i++) {
+            attributes.add(new Attribute("a" + i));
+        }
+        attributes.add(new Attribute("class", List.of("-1", "1")));
+        Instances instances = new Instances("synthetic", attributes, numRows);
+        instances.setClassIndex(numFeatures);
+
+        for (int row = 0; row < numRows; row++) {
+            double[] values = new double[numFeatures + 1];
+            double score = 0;
+            for (int i = 0; i < numFeatures; i++) {
+                values[i] = rand.nextDouble() * 2 - 1;
+                score += plane[i] * values[i];
+            }
+            boolean positive = score > 0;
+            if (rand.nextDouble() < 0.05) {
+                positive = !positive;
+            }
+            values[numFeatures] = positive ? 1 : 0;
+            instances.add(new DenseInstance(1, values));
+        }
+        return instances;
+    }
+}
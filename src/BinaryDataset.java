@@ -0,0 +1,117 @@
+import weka.core.Instances;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// A compact binary form of a dataset that loads without parsing any text.
+//
+// Layout, all little-endian:
+//   int magic, int version, int numRows, int numFeatures, int numClasses (0 for a numeric class)
+//   numRows * numFeatures doubles, row-major
+//   numRows class bytes (the class index for a nominal class)
+//   numRows target bytes, -1 or 1, the perceptrons' target for each row (version 2 on)
+//
+// The targets are stored rather than worked out from the class bytes on loading: a numeric class
+// only keeps its whole part in a class byte, so a class of 0.5 trains as 1 from the ARFF file but
+// would come back as 0, and train as -1. Version 1 files have no targets; they are worked out from
+// the class bytes, as before.
+//
+// Convert an ARFF file once with
+//   java BinaryDataset <input.arff> <output.bin>
+// and load it with BinaryDataset.load. The loader maps the file and bulk-copies it straight
+// into the arrays of a FeatureMatrix, with no Instances or per-row Instance objects in between.
+public class BinaryDataset {
+
+    static final int MAGIC = 0x50435054;
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 5 * Integer.BYTES;
+
+    // files can be far bigger than a single mapping (at most 2GB), so the values are mapped in chunks
+    private static final long CHUNK_BYTES = 1L << 30;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.out.println("Usage: java BinaryDataset <input.arff> <output.bin>");
+            return;
+        }
+        Instances instances = Main.loadData(args[0]);
+        instances.setClassIndex(instances.numAttributes() - 1);
+        // the format only holds dense rows
+        write(new FeatureMatrix(instances).dense(), args[1]);
+    }
+
+    static void write(FeatureMatrix matrix, String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer header = map(channel, FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putInt(matrix.numRows).putInt(matrix.numFeatures).putInt(matrix.numClasses);
+
+            long position = HEADER_BYTES;
+            for (int start = 0; start < matrix.values.length; ) {
+                int length = (int) Math.min(matrix.values.length - start, CHUNK_BYTES / Double.BYTES);
+                map(channel, FileChannel.MapMode.READ_WRITE, position, (long) length * Double.BYTES)
+                        .asDoubleBuffer().put(matrix.values, start, length);
+                start += length;
+                position += (long) length * Double.BYTES;
+            }
+
+            map(channel, FileChannel.MapMode.READ_WRITE, position, matrix.numRows).put(matrix.classes);
+            position += matrix.numRows;
+            map(channel, FileChannel.MapMode.READ_WRITE, position, matrix.numRows).put(matrix.targets);
+        }
+    }
+
+    static FeatureMatrix load(String path) throws IOException {
+        Path file = Paths.get(path);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer header = map(channel, FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a binary dataset: " + path);
+            }
+            int version = header.getInt();
+            if (version != 1 && version != VERSION) {
+                throw new IOException("Unsupported binary dataset version " + version + ": " + path);
+            }
+            int numRows = header.getInt();
+            int numFeatures = header.getInt();
+            int numClasses = header.getInt();
+
+            double[] values = new double[Math.multiplyExact(numRows, numFeatures)];
+            long position = HEADER_BYTES;
+            for (int start = 0; start < values.length; ) {
+                int length = (int) Math.min(values.length - start, CHUNK_BYTES / Double.BYTES);
+                map(channel, FileChannel.MapMode.READ_ONLY, position, (long) length * Double.BYTES)
+                        .asDoubleBuffer().get(values, start, length);
+                start += length;
+                position += (long) length * Double.BYTES;
+            }
+
+            byte[] classes = new byte[numRows];
+            map(channel, FileChannel.MapMode.READ_ONLY, position, numRows).get(classes);
+            position += numRows;
+
+            byte[] targets = new byte[numRows];
+            if (version == 1) {
+                for (int row = 0; row < numRows; row++) {
+                    targets[row] = (byte) (classes[row] == 0 ? -1 : 1);
+                }
+            } else {
+                map(channel, FileChannel.MapMode.READ_ONLY, position, numRows).get(targets);
+            }
+
+            return new FeatureMatrix(values, targets, classes, numRows, numFeatures, numClasses);
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long position, long size)
+            throws IOException {
+        MappedByteBuffer buffer = channel.map(mode, position, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+}
@@ -0,0 +1,148 @@
+// A frozen copy of a trained LinearPerceptron, EnhancedLinearPerceptron or LinearPerceptronEnsemble,
+// made by their compile() methods, or read back from a ModelFile.
+//
+// Everything is copied at compile time and never written again, so one CompiledModel can be
+// shared by any number of threads with no locking. Classifying never modifies its input.
+// It only uses primitive arrays and has no weka dependency.
+public final class CompiledModel {
+
+    // one weight vector per member (a single perceptron is a one-member model)
+    final double[][] weights;
+    // attributes each member reads from a full-width row, null for all of them in order
+    final int[][] attributes;
+    // a constant added to each member's score, e.g. EnhancedLinearPerceptron's standardisation
+    // folded into the model; null for none
+    final double[] intercepts;
+    // class values members vote for, null for a single perceptron, which returns -1, 0 or 1
+    final double[] classValues;
+    // one-vs-rest: one member per class, and the answer is the index of the highest-scoring one
+    final boolean oneVsRest;
+
+    CompiledModel(double[][] weights, int[][] attributes, double[] intercepts, double[] classValues, boolean oneVsRest) {
+        this.weights = new double[weights.length][];
+        this.attributes = new int[weights.length][];
+        for (int m = 0; m < weights.length; m++) {
+            this.weights[m] = weights[m].clone();
+            this.attributes[m] = attributes[m] == null ? null : attributes[m].clone();
+        }
+        this.intercepts = intercepts == null ? null : intercepts.clone();
+        this.classValues = classValues == null ? null : classValues.clone();
+        this.oneVsRest = oneVsRest;
+    }
+
+    // features holds the full-width attribute values; a trailing class value is ignored
+    public double classify(double[] features) {
+        return classify(features, 0);
+    }
+
+    public double[] classifyBatch(double[][] rows) {
+        double[] labels = new double[rows.length];
+        for (int row = 0; row < rows.length; row++) {
+            labels[row] = classify(rows[row], 0);
+        }
+        return labels;
+    }
+
+    double classify(double[] values, int offset) {
+        if (oneVsRest) {
+            int best = 0;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int c = 0; c < weights.length; c++) {
+                double score = score(c, values, offset);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = c;
+                }
+            }
+            return best;
+        }
+        if (classValues == null) {
+            return sign(score(0, values, offset));
+        }
+
+        // members only ever answer -1, 0 or 1, so three counters hold the whole vote
+        int negative = 0;
+        int zero = 0;
+        int positive = 0;
+        for (int m = 0; m < weights.length; m++) {
+            double vote = sign(score(m, values, offset));
+            if (vote < 0) {
+                negative++;
+            } else if (vote > 0) {
+                positive++;
+            } else {
+                zero++;
+            }
+        }
+
+        return winner(classValues, negative, zero, positive);
+    }
+
+    private double score(int m, double[] values, int offset) {
+        double[] w = weights[m];
+        int[] a = attributes[m];
+        double result = a == null ? VectorOps.dot(w, values, offset, w.length) : VectorOps.dot(w, values, offset, a);
+        return intercepts == null ? result : result + intercepts[m];
+    }
+
+    // counts the members' -1, 0 and 1 answers, from the signs of their scores, into votes
+    static int[] countVotes(double[] scores, int[] votes) {
+        votes[0] = 0;
+        votes[1] = 0;
+        votes[2] = 0;
+        for (double score : scores) {
+            if (score < 0) {
+                votes[0]++;
+            } else if (score > 0) {
+                votes[2]++;
+            } else {
+                votes[1]++;
+            }
+        }
+        return votes;
+    }
+
+    static double winner(double[] classValues, int[] votes) {
+        return winner(classValues, votes[0], votes[1], votes[2]);
+    }
+
+    // most votes wins, the earliest class on a tie, and 0 if nobody voted
+    static double winner(double[] classValues, int negative, int zero, int positive) {
+        double classification = 0;
+        int count = 0;
+        for (double classValue : classValues) {
+            int votes = votesFor(classValue, negative, zero, positive);
+            if (votes > count) {
+                count = votes;
+                classification = classValue;
+            }
+        }
+        return classification;
+    }
+
+    // how many of the members' -1, 0 and 1 answers went to the given class value
+    static int votesFor(double classValue, int negative, int zero, int positive) {
+        if (classValue == -1) {
+            return negative;
+        } else if (classValue == 0) {
+            return zero;
+        } else if (classValue == 1) {
+            return positive;
+        }
+        return 0;
+    }
+
+    private static double sign(double result) {
+        if (result < 0) {
+            return -1;
+        } else if (result > 0) {
+            return 1;
+        } else {
+            return 0;
+        }
+    }
+
+    public int numMembers() {
+        return weights.length;
+    }
+}
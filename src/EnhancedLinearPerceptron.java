@@ -1,96 +1,224 @@
 import weka.classifiers.AbstractClassifier;
+import weka.classifiers.UpdateableClassifier;
 import weka.core.Capabilities;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.SparseInstance;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
 
-public class EnhancedLinearPerceptron extends AbstractClassifier {
+public class EnhancedLinearPerceptron extends AbstractClassifier implements UpdateableClassifier {
+
+    // the name this classifier reports to its metrics hook under
+    static final String NAME = "EnhancedLinearPerceptron";
 
     private Instances instances;
 
     private double[] weights;
+    // one weight vector per class when the class has more than two values, otherwise null
+    private double[][] classWeights;
     private double[] meanPerAttribute;
     private double[] STDPerAttribute;
-    private double[] offline;
+    // The trained model folded back onto raw inputs (see fold): foldedWeights[c] . x +
+    // intercepts[c] is what weights (or classWeights[c]) score the standardised x at, so
+    // prediction is a plain dot product on the caller's values. One vector per class, or one.
+    private double[][] foldedWeights;
+    private double[] intercepts;
+    // scratch row for updateClassifier, holding the standardised values of the latest instance
+    private double[] updateRow;
+
+    private RunningStatistics statistics;
 
     private double learningRate = 1;
-    private double adjustment = 0;
 
     private int numAttributes;
     private int bias = 0;
     private int stoppingCondition = 0;
     private int k = 4;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    // rows per chunk when offline epochs are summed in parallel
+    private int offlineChunkSize = 1024;
+    // rows per task when the standardisation statistics are gathered in parallel
+    private static final int STATISTICS_CHUNK_SIZE = 4096;
+    // epoch-level stopping rules, see EpochMonitor; maxEpochs bounds training on data that isn't separable
+    private int maxEpochs = 1000;
+    private int plateauPatience = 0;
+    private int validationPatience = 0;
+    // share of the training rows held out to measure the validation error after every epoch
+    private double validationProportion = 0;
+
+    // one entry per epoch of the last build
+    private List<EpochMonitor.EpochStatistics> epochStatistics = new ArrayList<>();
+    // where timings and epochs are reported, null for nowhere
+    private TrainingMetrics metrics = null;
+
+    private long seed = 0;
+    private boolean seedSet = false;
 
     private boolean standardise = false;
+    // whether standardising subtracts the mean; not for sparse data, where it would turn every
+    // zero into a non-zero, so there it only divides by the standard deviation
+    private boolean centre = true;
     private boolean online = true;
     private boolean crossValidate = false;
+    private boolean parallelOffline = false;
     private boolean weightsSet = false;
     private boolean training = true;
 
     @Override
     public void buildClassifier(Instances instances) throws Exception {
         this.instances = instances;
-        this.numAttributes = instances.numAttributes();
+
+        getCapabilities().testWithFail(instances);
+
+        initialiseWeights(instances.numAttributes() - 1,
+                instances.classAttribute().isNominal() ? instances.numClasses() : 0);
+
+        updateRow = new double[instances.numAttributes()-1];
+
+        // one packed copy of the data, standardised in place, shared by cross validation and the
+        // final build; the caller's instances are never changed
+        long start = metrics == null ? 0 : System.nanoTime();
+        FeatureMatrix matrix = new FeatureMatrix(instances);
+        centre = !matrix.isSparse();
+        start = phase(TrainingMetrics.Phase.LOAD, start);
+        if (standardise) {
+            statistics = standardiseMatrix(matrix);
+            start = phase(TrainingMetrics.Phase.STANDARDISE, start);
+        }
+
+        if (crossValidate) {
+            kFoldCrossValidate(matrix);
+            start = phase(TrainingMetrics.Phase.CROSS_VALIDATE, start);
+        }
+
+        MatrixView[] split = new MatrixView(matrix).holdOut(validationProportion);
+        EpochMonitor monitor = new EpochMonitor(split[0].numRows, maxEpochs, plateauPatience, validationPatience)
+                .reportTo(metrics, NAME);
+        if (!online && parallelOffline) {
+            innerBuildParallelOffline(split[0], split[1], classWeights != null ? classWeights : new double[][]{weights},
+                    classWeights != null, monitor);
+        } else if (classWeights != null) {
+            innerBuildOneVsRest(split[0], split[1], classWeights, online, monitor);
+        } else {
+            innerBuild(split[0], split[1], weights, online, monitor);
+        }
+        epochStatistics = monitor.statistics();
+        fold();
+        training = false;
+        phase(TrainingMetrics.Phase.TRAIN, start);
+    }
+
+    // reports the time since start as phase, and returns the time now to start the next one from
+    private long phase(TrainingMetrics.Phase phase, long start) {
+        if (metrics == null) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        metrics.phase(NAME, phase, now - start);
+        return now;
+    }
+
+    // Folds the standardisation into the model: w . ((x - mean) / std) is (w / std) . x - w . (mean / std),
+    // so each weight is divided by its attribute's standard deviation and the means go into an
+    // intercept. An attribute with no spread is standardised to 0, so its weight folds to 0.
+    private void fold() {
+        double[][] trained = classWeights != null ? classWeights : new double[][]{weights};
+        foldedWeights = new double[trained.length][numAttributes - 1];
+        intercepts = new double[trained.length];
+        for (int c = 0; c < trained.length; c++) {
+            for (int i = 0; i < numAttributes - 1; i++) {
+                if (!standardise) {
+                    foldedWeights[c][i] = trained[c][i];
+                } else if (STDPerAttribute[i] != 0) {
+                    foldedWeights[c][i] = trained[c][i] / STDPerAttribute[i];
+                    intercepts[c] -= foldedWeights[c][i] * meanPerAttribute[i];
+                }
+            }
+        }
+    }
+
+    // sets up the starting weights for numFeatures attributes (the class is not included)
+    void initialiseWeights(int numFeatures, int numClasses) {
+        this.numAttributes = numFeatures + 1;
 
         //set default value for weights if not specified
         if(!weightsSet){
-            double[] newWeights = new double[instances.numAttributes()-1];
-            for(int i = 0; i<instances.numAttributes()-1; i++){
+            double[] newWeights = new double[numFeatures];
+            for(int i = 0; i<numFeatures; i++){
                 newWeights[i] = 1;
             }
             weights = newWeights;
         }
 
-        getCapabilities().testWithFail(instances);
-
-        if (standardise) {standardiseInstances(instances);}
-        if (crossValidate){ kFoldCrossValidate(); }
-        if (!online){ offline = new double[instances.numAttributes()-1]; }
-
-        innerBuild(instances);
-        training = false;
+        // more than two classes: one perceptron per class, each against the rest
+        if (numClasses > 2) {
+            classWeights = new double[numClasses][];
+            for (int c = 0; c < classWeights.length; c++) {
+                classWeights[c] = weights.clone();
+            }
+        } else {
+            classWeights = null;
+        }
     }
 
-    private void innerBuild(Instances instances){
+    // trains the given weights on the view; everything it changes is passed in, so cross
+    // validation can run several of these at once. Stops after a full pass with no mistakes, once
+    // stoppingCondition rows have been visited, or when the monitor says so at the end of a pass.
+    // With validation rows the weights that did best on them are kept.
+    private void innerBuild(MatrixView view, MatrixView validation, double[] weights, boolean online, EpochMonitor monitor){
+        double[] offline = online ? null : new double[numAttributes - 1];
         int cont = 0;
         int x = 0;
         int runNum = 1;
+        boolean stopped = false;
+        // the weights after the pass with the lowest validation error
+        double[] best = null;
 
         double t;
         double result;
+        double adjustment;
 
-        while (cont != instances.numInstances() && runNum != stoppingCondition) {
-            Instance instance = instances.get(x);
-            result = classifier(instance);
-            if (instance.classValue() == 0) {
-                t = -1;
-            } else {
-                t = 1;
-            }
+        while (cont != view.numRows && runNum != stoppingCondition) {
+            result = classifier(weights, view, x);
+            t = view.target(x);
             if (result != t) {
                 cont = 0;
                 adjustment = (0.5 * (learningRate)) * (t - result);
                 if(online) {
                     // sends the weights double[] when set to Online update
-                    weights(weights, adjustment, instance);
+                    view.axpy(weights, adjustment, x);
                 } else {
                     // sends the offline double[] when set to Online update
-                    weights(offline, adjustment, instance);
+                    view.axpy(offline, adjustment, x);
                 }
+                monitor.mistake();
             } else {
                 cont++;
             }
 
-            if (x == instances.numInstances() - 1) {
+            if (x == view.numRows - 1) {
                 if(!online){
                     for (int xj = 0; xj < numAttributes - 1; xj++) {
                         weights[xj] = weights[xj] + offline[xj];
                         offline[xj] = 0;
                     }
                 }
+                stopped = monitor.endEpoch(validationError(weights, validation));
+                if (monitor.bestValidationEpoch()) {
+                    best = weights.clone();
+                }
+                if (stopped) {
+                    break;
+                }
                 x = 0;
             } else {
                 x++;
@@ -98,24 +226,427 @@ public class EnhancedLinearPerceptron extends AbstractClassifier {
 
             runNum++;
         }
+        // the pass that was cut short, before any of its offline updates were applied
+        if (!stopped && x != 0) {
+            monitor.endEpoch(validationError(weights, validation), x);
+            if (monitor.bestValidationEpoch()) {
+                best = null;
+            }
+        }
+        if (best != null) {
+            System.arraycopy(best, 0, weights, 0, weights.length);
+        }
         if (runNum == stoppingCondition) {
             System.out.println("Process cancelled as reached max number of iterations");
         }
     }
 
+    // Trains all the per-class perceptrons together: each row is read once per visit and scored
+    // against every class, and only the perceptrons that got it wrong are updated (or, offline,
+    // have the update added to their own offline array). Stops after a full pass in which none
+    // of them made a mistake, or on the same conditions as innerBuild. A row counts as one
+    // mistake however many of the perceptrons got it wrong.
+    private void innerBuildOneVsRest(MatrixView view, MatrixView validation, double[][] classWeights, boolean online,
+                                     EpochMonitor monitor){
+        double[][] classOffline = online ? null : new double[classWeights.length][numAttributes - 1];
+        int cont = 0;
+        int x = 0;
+        int runNum = 1;
+        boolean stopped = false;
+        // the weights after the pass with the lowest validation error
+        double[][] best = null;
+
+        double t;
+        double result;
+        double adjustment;
+
+        while (cont != view.numRows && runNum != stoppingCondition) {
+            boolean mistake = false;
+            int classIndex = view.classIndex(x);
+            for (int c = 0; c < classWeights.length; c++) {
+                result = classifier(classWeights[c], view, x);
+                t = c == classIndex ? 1 : -1;
+                if (result != t) {
+                    mistake = true;
+                    adjustment = (0.5 * (learningRate)) * (t - result);
+                    view.axpy(online ? classWeights[c] : classOffline[c], adjustment, x);
+                }
+            }
+            if (mistake) {
+                cont = 0;
+                monitor.mistake();
+            } else {
+                cont++;
+            }
+
+            if (x == view.numRows - 1) {
+                if(!online){
+                    for (int c = 0; c < classWeights.length; c++) {
+                        for (int xj = 0; xj < numAttributes - 1; xj++) {
+                            classWeights[c][xj] = classWeights[c][xj] + classOffline[c][xj];
+                            classOffline[c][xj] = 0;
+                        }
+                    }
+                }
+                stopped = monitor.endEpoch(validationError(classWeights, validation));
+                if (monitor.bestValidationEpoch()) {
+                    best = copy(classWeights);
+                }
+                if (stopped) {
+                    break;
+                }
+                x = 0;
+            } else {
+                x++;
+            }
+
+            runNum++;
+        }
+        // the pass that was cut short, before any of its offline updates were applied
+        if (!stopped && x != 0) {
+            monitor.endEpoch(validationError(classWeights, validation), x);
+            if (monitor.bestValidationEpoch()) {
+                best = null;
+            }
+        }
+        if (best != null) {
+            for (int c = 0; c < classWeights.length; c++) {
+                System.arraycopy(best[c], 0, classWeights[c], 0, classWeights[c].length);
+            }
+        }
+        if (runNum == stoppingCondition) {
+            System.out.println("Process cancelled as reached max number of iterations");
+        }
+    }
+
+    // Offline training with each epoch's updates summed by several threads. In offline mode the
+    // weights stay fixed for a whole epoch, so the rows are split into chunks of offlineChunkSize,
+    // each chunk sums its own offline array(s), and the arrays are added up pairwise (a tree
+    // reduction) at the end of the epoch. Where each epoch's first and last mistakes fall tells
+    // us when the serial loop would have seen a full run of correct rows, so training stops at
+    // the same point as innerBuild/innerBuildOneVsRest, stoppingCondition and the monitor's rules
+    // included (though an epoch cut short by stoppingCondition isn't recorded).
+    // The chunks don't depend on the number of threads, so neither do the weights. They match the
+    // serial offline mode up to the order the updates are added in, and exactly when the data
+    // fits in one chunk.
+    private void innerBuildParallelOffline(MatrixView view, MatrixView validation, double[][] weights, boolean oneVsRest,
+                                           EpochMonitor monitor) {
+        int n = view.numRows;
+        if (n == 0) {
+            return;
+        }
+        int numChunks = (n + offlineChunkSize - 1) / offlineChunkSize;
+        // visits allowed by stoppingCondition, which counts them from 1; no limit if it isn't positive
+        long budget = stoppingCondition > 0 ? stoppingCondition - 1 : Long.MAX_VALUE;
+
+        // the weights after the pass with the lowest validation error
+        double[][] best = null;
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, numThreads));
+        try {
+            int previousLast = -1;
+            for (long epoch = 0; ; epoch++) {
+                OfflineDelta delta = pool.invoke(new OfflineEpoch(view, weights, oneVsRest, 0, numChunks));
+                long visitsBefore = epoch * n;
+
+                // the row of this epoch at which the serial loop reaches n correct rows in a row
+                int convergedAt = -1;
+                if (epoch == 0 && delta.first == n) {
+                    convergedAt = n - 1;
+                } else if (epoch > 0 && delta.first > previousLast) {
+                    convergedAt = previousLast;
+                }
+
+                if (convergedAt >= 0 || budget < visitsBefore + n) {
+                    // stopped part way through the epoch, before its offline updates were applied
+                    if (convergedAt < 0 || budget <= visitsBefore + convergedAt + 1) {
+                        System.out.println("Process cancelled as reached max number of iterations");
+                    } else {
+                        // the rows before convergedAt were all right
+                        monitor.endEpoch(validationError(weights, oneVsRest, validation), convergedAt + 1);
+                        if (monitor.bestValidationEpoch()) {
+                            best = null;
+                        }
+                    }
+                    break;
+                }
+
+                for (int c = 0; c < weights.length; c++) {
+                    for (int xj = 0; xj < numAttributes - 1; xj++) {
+                        weights[c][xj] = weights[c][xj] + delta.offline[c][xj];
+                    }
+                }
+                monitor.mistakes(delta.mistakes);
+                boolean stopped = monitor.endEpoch(validationError(weights, oneVsRest, validation));
+                if (monitor.bestValidationEpoch()) {
+                    best = copy(weights);
+                }
+                if (stopped) {
+                    break;
+                }
+                if (budget == visitsBefore + n) {
+                    System.out.println("Process cancelled as reached max number of iterations");
+                    break;
+                }
+                previousLast = delta.last;
+            }
+        } finally {
+            pool.shutdown();
+        }
+        if (best != null) {
+            for (int c = 0; c < weights.length; c++) {
+                System.arraycopy(best[c], 0, weights[c], 0, weights[c].length);
+            }
+        }
+    }
+
+    // the summed offline updates of a range of rows, where the first and last mistakes were, and
+    // how many rows had one
+    private static class OfflineDelta {
+        final double[][] offline;
+        int first;
+        int last = -1;
+        int mistakes = 0;
+
+        OfflineDelta(int numVectors, int numFeatures, int numRows) {
+            offline = new double[numVectors][numFeatures];
+            first = numRows;
+        }
+
+        // adds a later range of rows into this one
+        void add(OfflineDelta later) {
+            for (int c = 0; c < offline.length; c++) {
+                for (int xj = 0; xj < offline[c].length; xj++) {
+                    offline[c][xj] = offline[c][xj] + later.offline[c][xj];
+                }
+            }
+            first = Math.min(first, later.first);
+            last = Math.max(last, later.last);
+            mistakes += later.mistakes;
+        }
+    }
+
+    // one offline epoch over chunks [fromChunk, toChunk), split in half until a single chunk is left
+    private class OfflineEpoch extends RecursiveTask<OfflineDelta> {
+        private final MatrixView view;
+        private final double[][] weights;
+        private final boolean oneVsRest;
+        private final int fromChunk;
+        private final int toChunk;
+
+        OfflineEpoch(MatrixView view, double[][] weights, boolean oneVsRest, int fromChunk, int toChunk) {
+            this.view = view;
+            this.weights = weights;
+            this.oneVsRest = oneVsRest;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        @Override
+        protected OfflineDelta compute() {
+            if (toChunk - fromChunk > 1) {
+                int middle = (fromChunk + toChunk) >>> 1;
+                OfflineEpoch left = new OfflineEpoch(view, weights, oneVsRest, fromChunk, middle);
+                left.fork();
+                OfflineDelta right = new OfflineEpoch(view, weights, oneVsRest, middle, toChunk).compute();
+                OfflineDelta delta = left.join();
+                delta.add(right);
+                return delta;
+            }
+
+            OfflineDelta delta = new OfflineDelta(weights.length, numAttributes - 1, view.numRows);
+            int to = (int) Math.min(view.numRows, (long) toChunk * offlineChunkSize);
+            for (int x = fromChunk * offlineChunkSize; x < to; x++) {
+                boolean mistake = false;
+                int classIndex = view.classIndex(x);
+                for (int c = 0; c < weights.length; c++) {
+                    double t = oneVsRest ? (c == classIndex ? 1 : -1) : view.target(x);
+                    double result = classifier(weights[c], view, x);
+                    if (result != t) {
+                        mistake = true;
+                        view.axpy(delta.offline[c], (0.5 * (learningRate)) * (t - result), x);
+                    }
+                }
+                if (mistake) {
+                    delta.first = Math.min(delta.first, x);
+                    delta.last = x;
+                    delta.mistakes++;
+                }
+            }
+            return delta;
+        }
+    }
+
+    // share of the validation rows the weights get wrong, NaN without validation rows
+    private double validationError(double[] weights, MatrixView validation) {
+        if (validation == null) {
+            return Double.NaN;
+        }
+        int wrong = 0;
+        for (int x = 0; x < validation.numRows; x++) {
+            if (classifier(weights, validation, x) != validation.target(x)) {
+                wrong++;
+            }
+        }
+        return (double) wrong / validation.numRows;
+    }
+
+    private double validationError(double[][] classWeights, MatrixView validation) {
+        if (validation == null) {
+            return Double.NaN;
+        }
+        int wrong = 0;
+        for (int x = 0; x < validation.numRows; x++) {
+            if (oneVsRest(classWeights, validation, x) != validation.classIndex(x)) {
+                wrong++;
+            }
+        }
+        return (double) wrong / validation.numRows;
+    }
+
+    private double validationError(double[][] weights, boolean oneVsRest, MatrixView validation) {
+        return oneVsRest ? validationError(weights, validation) : validationError(weights[0], validation);
+    }
+
+    private static double[][] copy(double[][] classWeights) {
+        double[][] copy = new double[classWeights.length][];
+        for (int c = 0; c < classWeights.length; c++) {
+            copy[c] = classWeights[c].clone();
+        }
+        return copy;
+    }
+
+    // Learns from one more instance without keeping it: a single perceptron step on it. This is
+    // always an online step, as a stream has no epoch end to apply offline updates at. When
+    // standardising, the running mean and variance take the instance in first, so the model
+    // keeps following the data without another pass over it. buildClassifier must have been
+    // called first, possibly with an empty set of instances.
+    @Override
+    public void updateClassifier(Instance instance) {
+        if (standardise) {
+            statistics.add(instance);
+            statistics.copyTo(meanPerAttribute, STDPerAttribute);
+            if (!centre) {
+                Arrays.fill(meanPerAttribute, 0);
+            }
+        }
+        if (instance instanceof SparseInstance && !(standardise && centre)) {
+            // a step on the non-zeros alone, as every zero stays zero
+            if (classWeights != null) {
+                int classIndex = (int) instance.classValue();
+                for (int c = 0; c < classWeights.length; c++) {
+                    updateSparse(classWeights[c], c == classIndex ? 1 : -1, instance);
+                }
+            } else {
+                updateSparse(weights, instance.classValue() == 0 ? -1 : 1, instance);
+            }
+            fold();
+            return;
+        }
+        for (int i = 0; i < numAttributes - 1; i++) {
+            // an attribute that hasn't varied yet has nothing to scale by
+            updateRow[i] = standardise && STDPerAttribute[i] == 0 ? 0 : value(instance.value(i), i);
+        }
+
+        if (classWeights != null) {
+            int classIndex = (int) instance.classValue();
+            for (int c = 0; c < classWeights.length; c++) {
+                update(classWeights[c], c == classIndex ? 1 : -1);
+            }
+        } else {
+            update(weights, instance.classValue() == 0 ? -1 : 1);
+        }
+        fold();
+    }
+
+    private void update(double[] weights, double t) {
+        double result = VectorOps.dot(weights, updateRow, 0, numAttributes - 1) + bias;
+        result = result < 0 ? -1 : result > 0 ? 1 : 0;
+        if (result != t) {
+            double adjustment = (0.5 * (learningRate)) * (t - result);
+            VectorOps.axpy(weights, adjustment, updateRow, 0, numAttributes - 1);
+        }
+    }
+
+    private void updateSparse(double[] weights, double t, Instance instance) {
+        double result = sparseDot(weights, instance) + bias;
+        result = result < 0 ? -1 : result > 0 ? 1 : 0;
+        if (result != t) {
+            double adjustment = (0.5 * (learningRate)) * (t - result);
+            for (int j = 0; j < instance.numValues(); j++) {
+                int attribute = instance.index(j);
+                // an attribute that hasn't varied yet has nothing to scale by
+                if (attribute < numAttributes - 1 && !(standardise && STDPerAttribute[attribute] == 0)) {
+                    weights[attribute] = weights[attribute] + (adjustment * value(instance.valueSparse(j), attribute));
+                }
+            }
+        }
+    }
+
+    // weights . instance over the non-zeros of a sparse instance, standardised on the fly, leaving
+    // out attributes that haven't varied; only valid when zeros stay zero, i.e. when not centring
+    private double sparseDot(double[] weights, Instance instance) {
+        double result = 0;
+        for (int j = 0; j < instance.numValues(); j++) {
+            int attribute = instance.index(j);
+            if (attribute < numAttributes - 1 && !(standardise && STDPerAttribute[attribute] == 0)) {
+                result += weights[attribute] * value(instance.valueSparse(j), attribute);
+            }
+        }
+        return result;
+    }
+
     //classify instance is called when classifying an instance
     public double classifyInstance(Instance instance) {
-        if (standardise) {
-            standardiseInstance(instance);
+        if (metrics == null) {
+            return classifier(instance);
         }
-        return classifier(instance);
+        long start = System.nanoTime();
+        double label = classifier(instance);
+        metrics.prediction(NAME, 1, System.nanoTime() - start);
+        return label;
     }
 
+    // scores the raw instance with the folded model, so the caller's instance is untouched and
+    // several threads can classify against the same trained model
     private double classifier(Instance instance){
+        if (classWeights != null) {
+            int best = 0;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int c = 0; c < foldedWeights.length; c++) {
+                double score = score(c, instance);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = c;
+                }
+            }
+            return best;
+        }
+        return sign(score(0, instance));
+    }
+
+    // the folded score of a raw instance; a sparse one is read through its non-zeros only
+    private double score(int c, Instance instance) {
+        double[] w = foldedWeights[c];
         double result = 0;
-        for (int i = 0; i < numAttributes - 1; i++) {
-            result += weights[i] * instance.value(i);
+        if (instance instanceof SparseInstance) {
+            for (int j = 0; j < instance.numValues(); j++) {
+                if (instance.index(j) < numAttributes - 1) {
+                    result += w[instance.index(j)] * instance.valueSparse(j);
+                }
+            }
+        } else {
+            for (int i = 0; i < numAttributes - 1; i++) {
+                result += w[i] * instance.value(i);
+            }
         }
+        return result + intercepts[c];
+    }
+
+    private double classifier(double[] weights, MatrixView view, int x){
+        return sign(view.dot(weights, x));
+    }
+
+    private double sign(double result) {
         if(training) {
             result = result + bias;
         }
@@ -128,72 +659,204 @@ public class EnhancedLinearPerceptron extends AbstractClassifier {
         }
     }
 
-    //adjust the weights for the perceptron
-    private void weights(double[] arrayToChange, double adjustment, Instance instance) {
-        for (int xj = 0; xj < numAttributes - 1; xj++) {
-            arrayToChange[xj] = arrayToChange[xj] + (adjustment * instance.value(xj));
+    // classifies every instance in one call, scoring the packed raw rows with the folded model
+    public double[] classifyBatch(Instances instances) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        FeatureMatrix matrix = new FeatureMatrix(instances);
+        double[] labels = new double[matrix.numRows];
+        for (int row = 0; row < matrix.numRows; row++) {
+            labels[row] = classifier(matrix, row);
+        }
+        if (metrics != null) {
+            metrics.prediction(NAME, labels.length, System.nanoTime() - start);
         }
+        return labels;
     }
 
-    private void standardiseInstances(Instances instances) {
-
-        meanPerAttribute = new double[instances.numAttributes() - 1];
-        STDPerAttribute = new double[instances.numAttributes() - 1];
-
-        for (int attribute = 0; attribute < instances.numAttributes() - 1; attribute++) {
-            // get the mean of all attributes in the list of instances
-            meanPerAttribute[attribute] = instances.meanOrMode(attribute);
+    // classifies rows of raw feature values (no class column)
+    public double[] classifyBatch(double[][] rows) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        double[] labels = new double[rows.length];
+        for (int row = 0; row < rows.length; row++) {
+            labels[row] = classifier(rows[row], 0);
+        }
+        if (metrics != null) {
+            metrics.prediction(NAME, labels.length, System.nanoTime() - start);
+        }
+        return labels;
+    }
 
-            //get the standard deviation of all attributes in the list of instances
-            STDPerAttribute[attribute] = Math.sqrt(instances.variance(attribute));
+    private double classifier(double[] values, int offset){
+        if (classWeights != null) {
+            return oneVsRest(values, offset);
         }
+        return sign(VectorOps.dot(foldedWeights[0], values, offset, numAttributes - 1) + intercepts[0]);
+    }
 
-        // work out standardised version of each instance
-        for (Instance instance : instances) {
-            standardiseInstance(instance);
+    // a row of a packed raw matrix, dense or sparse
+    private double classifier(FeatureMatrix matrix, int row) {
+        if (!matrix.isSparse()) {
+            return classifier(matrix.values, matrix.offset(row));
+        }
+        int from = matrix.rowStart[row];
+        int to = matrix.rowStart[row + 1];
+        int best = 0;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < foldedWeights.length; c++) {
+            double score = VectorOps.sparseDot(foldedWeights[c], matrix.values, matrix.indices, from, to, null) + intercepts[c];
+            if (classWeights == null) {
+                return sign(score);
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                best = c;
+            }
         }
+        return best;
+    }
 
+    // one-vs-rest prediction: the index of the class whose perceptron scores the row highest,
+    // i.e. one K x d matrix-vector product
+    private int oneVsRest(double[][] classWeights, MatrixView view, int x) {
+        int best = 0;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < classWeights.length; c++) {
+            double score = view.dot(classWeights[c], x);
+            if (score > bestScore) {
+                bestScore = score;
+                best = c;
+            }
+        }
+        return best;
     }
 
-    private void standardiseInstance(Instance instance) {
-        for (int attribute = 0; attribute < instance.numAttributes()-1; attribute++) {
-            double standardised = (instance.value(attribute) - meanPerAttribute[attribute]) / STDPerAttribute[attribute];
-            instance.setValue(attribute, standardised);
+    private double oneVsRest(double[] values, int offset) {
+        int best = 0;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < foldedWeights.length; c++) {
+            double score = VectorOps.dot(foldedWeights[c], values, offset, numAttributes - 1) + intercepts[c];
+            if (score > bestScore) {
+                bestScore = score;
+                best = c;
+            }
         }
+        return best;
     }
 
-    private void resetStandardise(Instances instances){
-        meanPerAttribute = new double[instances.numAttributes() - 1];
-        STDPerAttribute = new double[instances.numAttributes() - 1];
+    // the value the model is trained on for a raw attribute value
+    private double value(double raw, int attribute) {
+        return standardise ? (raw - meanPerAttribute[attribute]) / STDPerAttribute[attribute] : raw;
     }
 
-    private void kFoldCrossValidate() {
-        Instances CVInstances = new Instances(instances);
-        Collections.shuffle(CVInstances);
+    // an immutable copy of the trained model that can be shared between threads
+    public CompiledModel compile() {
+        return new CompiledModel(foldedWeights, new int[foldedWeights.length][], intercepts, null, classWeights != null);
+    }
 
-        //define the folds
-        int[][] folds = new int[k][instances.numInstances()/k];
-        int current = 0;
+    // Standardises the packed matrix in place and returns its statistics. Both steps run over
+    // chunks of rows in parallel: each chunk gathers its own statistics, which are merged in
+    // chunk order, so the result doesn't depend on the number of threads. Sparse data is only
+    // scaled (see centre).
+    private RunningStatistics standardiseMatrix(FeatureMatrix matrix) throws Exception {
+        int numFeatures = matrix.numFeatures;
+        meanPerAttribute = new double[numFeatures];
+        STDPerAttribute = new double[numFeatures];
+
+        int numChunks = (matrix.numRows + STATISTICS_CHUNK_SIZE - 1) / STATISTICS_CHUNK_SIZE;
+        RunningStatistics statistics = new RunningStatistics(numFeatures);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, numChunks)));
+        try {
+            List<Future<RunningStatistics>> chunks = new ArrayList<>();
+            for (int chunk = 0; chunk < numChunks; chunk++) {
+                int from = chunk * STATISTICS_CHUNK_SIZE;
+                int to = Math.min(matrix.numRows, from + STATISTICS_CHUNK_SIZE);
+                chunks.add(executor.submit(() -> {
+                    RunningStatistics chunkStatistics = new RunningStatistics(numFeatures);
+                    for (int row = from; row < to; row++) {
+                        if (matrix.isSparse()) {
+                            chunkStatistics.add(matrix.values, matrix.indices, matrix.rowStart[row], matrix.rowStart[row + 1]);
+                        } else {
+                            chunkStatistics.add(matrix.values, matrix.offset(row));
+                        }
+                    }
+                    return chunkStatistics;
+                }));
+            }
+            for (Future<RunningStatistics> chunk : chunks) {
+                statistics.merge(chunk.get());
+            }
+            statistics.copyTo(meanPerAttribute, STDPerAttribute);
+            if (!centre) {
+                Arrays.fill(meanPerAttribute, 0);
+            }
 
-        for (int i = 0; i < k; i++) {
-            for (int y =0; y < CVInstances.numInstances()/k; y++) {
-                folds[i][y] = current;
-                current++;
+            List<Future<?>> standardised = new ArrayList<>();
+            for (int chunk = 0; chunk < numChunks; chunk++) {
+                int from = chunk * STATISTICS_CHUNK_SIZE;
+                int to = Math.min(matrix.numRows, from + STATISTICS_CHUNK_SIZE);
+                standardised.add(executor.submit(() -> standardiseRows(matrix, from, to)));
+            }
+            for (Future<?> chunk : standardised) {
+                chunk.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return statistics;
+    }
+
+    // an attribute with no spread has nothing to scale by, so it is set to 0
+    private void standardiseRows(FeatureMatrix matrix, int from, int to) {
+        if (matrix.isSparse()) {
+            for (int j = matrix.rowStart[from]; j < matrix.rowStart[to]; j++) {
+                int attribute = matrix.indices[j];
+                matrix.values[j] = STDPerAttribute[attribute] == 0 ? 0 : matrix.values[j] / STDPerAttribute[attribute];
+            }
+            return;
+        }
+        for (int row = from; row < to; row++) {
+            int offset = matrix.offset(row);
+            for (int attribute = 0; attribute < matrix.numFeatures; attribute++) {
+                matrix.values[offset + attribute] = STDPerAttribute[attribute] == 0 ? 0
+                        : (matrix.values[offset + attribute] - meanPerAttribute[attribute]) / STDPerAttribute[attribute];
             }
         }
+    }
 
-        //Create the models
-        Instances[] onlineModel = createModel(CVInstances, folds);
-        Instances[] offlineModel = createModel(CVInstances, folds);
+    // Evaluates both update modes on every one of the k folds, each (mode, fold) pair as its own
+    // task, with the folds as index views over the one packed copy of the data. Every task trains
+    // its own copy of the starting weights, so the folds don't disturb each other or the model,
+    // and the mode chosen doesn't depend on how many threads ran them.
+    private void kFoldCrossValidate(FeatureMatrix matrix) throws Exception {
+        int[] rows = MatrixView.shuffledRows(matrix.numRows, seedSet ? new Random(seed) : new Random());
 
+        //define the folds, spreading any remainder over the first ones
+        int[][] folds = new int[k][];
+        for (int i = 0; i < k; i++) {
+            folds[i] = Arrays.copyOfRange(rows, (int) ((long) i * rows.length / k), (int) ((long) (i + 1) * rows.length / k));
+        }
 
-        //Test the models
-        double onlineAccuracy = testModel(true,onlineModel);
-        offline = new double[offlineModel[0].numAttributes()-1];
-        double offlineAccuracy = testModel(false,offlineModel);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, 2 * k)));
+        int onlineCorrect = 0;
+        int offlineCorrect = 0;
+        try {
+            List<Future<Integer>> onlineResults = new ArrayList<>();
+            List<Future<Integer>> offlineResults = new ArrayList<>();
+            for (int i = 0; i < k; i++) {
+                final int fold = i;
+                onlineResults.add(executor.submit(() -> testFold(matrix, folds, fold, true)));
+                offlineResults.add(executor.submit(() -> testFold(matrix, folds, fold, false)));
+            }
+            for (int i = 0; i < k; i++) {
+                onlineCorrect += onlineResults.get(i).get();
+                offlineCorrect += offlineResults.get(i).get();
+            }
+        } finally {
+            executor.shutdown();
+        }
 
         //Chose the update method based on the accuracy calculated
-        if(onlineAccuracy >= offlineAccuracy) {
+        if(onlineCorrect >= offlineCorrect) {
             online = true;
         }
         else {
@@ -202,47 +865,46 @@ public class EnhancedLinearPerceptron extends AbstractClassifier {
 
     }
 
-
-    private double accuracy(Instances test) {
-        double correct = 0;
-
-        for (Instance instance : test){
-            double answer = instance.classValue();
-            if (classifyInstance(instance) == answer){
-                correct++;
+    // trains on every fold but one and returns how many rows of the held out fold it got right
+    private int testFold(FeatureMatrix matrix, int[][] folds, int fold, boolean updateOnline) {
+        int[] train = new int[matrix.numRows - folds[fold].length];
+        int position = 0;
+        for (int i = 0; i < folds.length; i++) {
+            if (i != fold) {
+                System.arraycopy(folds[i], 0, train, position, folds[i].length);
+                position += folds[i].length;
             }
         }
-        return (correct/test.numInstances())*100;
-    }
-
-
-    private double testModel(boolean updateMethod, Instances[] instancesArr) {
-        online = updateMethod;
-        innerBuild(instancesArr[0]);
-        standardiseInstances(instancesArr[0]);
-        double accuracy = accuracy(instancesArr[1]);
-        resetStandardise(instancesArr[0]);
-        return accuracy;
+        return trainAndTest(new MatrixView(matrix, train, null), new MatrixView(matrix, folds[fold], null), updateOnline);
     }
 
-    private Instances[] createModel(Instances CVInstances, int[][] folds){
-        Instances trainInstances = new Instances(CVInstances);
-        Instances testInstances = new Instances(instances,0);
-
-        int randomNum = ThreadLocalRandom.current().nextInt(0, k-1 );
-
-        //separate the folds into train and test instances groups
-        for (int i = 0; i < k; i++) {
-            if(i==randomNum) {
-                for (int y = 0; y < (instances.numInstances() / k); y++) {
-                    testInstances.add(trainInstances.get(folds[i][y]));
-                    trainInstances.remove(folds[i][y]);
+    // Trains a copy of the starting weights on trainView and returns how many rows of testView it
+    // gets right. Leaves the model itself alone, so any number of these can run at once.
+    int trainAndTest(MatrixView trainView, MatrixView testView, boolean updateOnline) {
+        int correct = 0;
+        if (classWeights != null) {
+            double[][] foldWeights = new double[classWeights.length][];
+            for (int c = 0; c < classWeights.length; c++) {
+                foldWeights[c] = classWeights[c].clone();
+            }
+            innerBuildOneVsRest(trainView, null, foldWeights, updateOnline, new EpochMonitor(trainView.numRows, maxEpochs, plateauPatience, 0));
+            for (int x = 0; x < testView.numRows; x++) {
+                if (oneVsRest(foldWeights, testView, x) == testView.classIndex(x)) {
+                    correct++;
+                }
+            }
+        } else {
+            double[] foldWeights = weights.clone();
+            innerBuild(trainView, null, foldWeights, updateOnline, new EpochMonitor(trainView.numRows, maxEpochs, plateauPatience, 0));
+            for (int x = 0; x < testView.numRows; x++) {
+                if (classifier(foldWeights, testView, x) == testView.target(x)) {
+                    correct++;
                 }
             }
-
         }
-        return new Instances[]{trainInstances, testInstances};
+        return correct;
     }
+
     @Override
     public Capabilities getCapabilities() {
         Capabilities result = super.getCapabilities();
@@ -254,7 +916,7 @@ public class EnhancedLinearPerceptron extends AbstractClassifier {
 
         // class
         result.enable(Capabilities.Capability.NUMERIC_CLASS);
-        result.enable(Capabilities.Capability.BINARY_CLASS);
+        result.enable(Capabilities.Capability.NOMINAL_CLASS);
 
         return result;
     }
@@ -281,18 +943,60 @@ public class EnhancedLinearPerceptron extends AbstractClassifier {
 
     public void setK(int k){this.k = k;}
 
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+        seedSet = true;
+    }
+
     public void setStoppingCondition(int stoppingCondition) {
         this.stoppingCondition = stoppingCondition;
     }
 
+    // reports build phases, epochs and prediction times to metrics; null (the default) turns it off
+    public void setMetrics(TrainingMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     public void setStandardise(boolean standardise) {
         this.standardise = standardise;
     }
 
+    public void setOnline(boolean online) {
+        this.online = online;
+    }
+
+    public void setParallelOffline(boolean parallelOffline) {
+        this.parallelOffline = parallelOffline;
+    }
+
+    public void setOfflineChunkSize(int offlineChunkSize) {
+        this.offlineChunkSize = offlineChunkSize;
+    }
+
     public void setCrossValidate(boolean crossValidate) {
         this.crossValidate = crossValidate;
     }
 
+    public void setMaxEpochs(int maxEpochs) {
+        this.maxEpochs = maxEpochs;
+    }
+
+    public void setPlateauPatience(int plateauPatience) {
+        this.plateauPatience = plateauPatience;
+    }
+
+    public void setValidationPatience(int validationPatience) {
+        this.validationPatience = validationPatience;
+    }
+
+    public void setValidationProportion(double validationProportion) {
+        this.validationProportion = validationProportion;
+    }
+
     public double getLearningRate() {
         return learningRate;
     }
@@ -301,6 +1005,10 @@ public class EnhancedLinearPerceptron extends AbstractClassifier {
         return weights;
     }
 
+    public double[][] getClassWeights() {
+        return classWeights;
+    }
+
     public Instances getInstances() {
         return instances;
     }
@@ -313,6 +1021,10 @@ public class EnhancedLinearPerceptron extends AbstractClassifier {
         return standardise;
     }
 
+    public boolean getOnline() {
+        return online;
+    }
+
     public boolean getCrossValidate() {
         return crossValidate;
     }
@@ -325,5 +1037,30 @@ public class EnhancedLinearPerceptron extends AbstractClassifier {
         return stoppingCondition;
     }
 
+    public TrainingMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getMaxEpochs() {
+        return maxEpochs;
+    }
+
+    public int getPlateauPatience() {
+        return plateauPatience;
+    }
+
+    public int getValidationPatience() {
+        return validationPatience;
+    }
+
+    public double getValidationProportion() {
+        return validationProportion;
+    }
+
+    // mistakes, time and validation error of each epoch of the last build
+    public List<EpochMonitor.EpochStatistics> getEpochStatistics() {
+        return epochStatistics;
+    }
+
 
 }
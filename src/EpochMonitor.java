@@ -0,0 +1,128 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Epoch bookkeeping shared by the perceptrons' training loops: counts each pass's mistakes, times
+// it, and applies the epoch-level stopping rules on top of the loops' own (a clean pass, or
+// stoppingCondition row visits):
+//   maxEpochs           stop after this many passes (0 for no limit)
+//   plateauPatience     stop once the mistake count hasn't reached a new low for this many passes
+//   validationPatience  stop once the validation error hasn't reached a new low for this many passes
+// A patience of 0 turns that rule off. With a TrainingMetrics hook set (reportTo), every pass is
+// also handed to it as soon as it is recorded.
+class EpochMonitor {
+
+    // what happened in one pass over the training rows
+    public static class EpochStatistics {
+        public final int epoch;
+        public final int mistakes;
+        // rows visited in the pass, fewer than the training rows for one cut short
+        public final int rows;
+        public final long nanos;
+        // misclassified share of the validation rows, NaN when there are none
+        public final double validationError;
+
+        EpochStatistics(int epoch, int mistakes, int rows, long nanos, double validationError) {
+            this.epoch = epoch;
+            this.mistakes = mistakes;
+            this.rows = rows;
+            this.nanos = nanos;
+            this.validationError = validationError;
+        }
+
+        public double rowsPerSecond() {
+            return nanos > 0 ? rows * 1e9 / nanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "epoch " + epoch + ": " + mistakes + " mistakes, " + rows + " rows, " + (nanos / 1e6) + " ms"
+                    + (Double.isNaN(validationError) ? "" : ", validation error " + validationError);
+        }
+    }
+
+    // rows in a full pass
+    private final int rowsPerEpoch;
+    private final int maxEpochs;
+    private final int plateauPatience;
+    private final int validationPatience;
+
+    private final List<EpochStatistics> statistics = new ArrayList<>();
+
+    private TrainingMetrics metrics = null;
+    private String classifier;
+
+    private int mistakes = 0;
+    private long epochStart = System.nanoTime();
+
+    private int fewestMistakes = Integer.MAX_VALUE;
+    private int sinceFewestMistakes = 0;
+    private double bestValidationError = Double.POSITIVE_INFINITY;
+    private int sinceBestValidationError = 0;
+
+    EpochMonitor(int rowsPerEpoch, int maxEpochs, int plateauPatience, int validationPatience) {
+        this.rowsPerEpoch = rowsPerEpoch;
+        this.maxEpochs = maxEpochs;
+        this.plateauPatience = plateauPatience;
+        this.validationPatience = validationPatience;
+    }
+
+    // hands every pass to metrics as classifier's, when metrics isn't null
+    EpochMonitor reportTo(TrainingMetrics metrics, String classifier) {
+        this.metrics = metrics;
+        this.classifier = classifier;
+        return this;
+    }
+
+    void mistake() {
+        mistakes++;
+    }
+
+    void mistakes(int count) {
+        mistakes += count;
+    }
+
+    // records the full pass that just finished and returns whether training should stop here
+    boolean endEpoch(double validationError) {
+        return endEpoch(validationError, rowsPerEpoch);
+    }
+
+    // the same for a pass that only visited rows rows
+    boolean endEpoch(double validationError, int rows) {
+        long now = System.nanoTime();
+        EpochStatistics epoch = new EpochStatistics(statistics.size() + 1, mistakes, rows, now - epochStart, validationError);
+        statistics.add(epoch);
+        if (metrics != null) {
+            metrics.epoch(classifier, epoch);
+        }
+
+        if (mistakes < fewestMistakes) {
+            fewestMistakes = mistakes;
+            sinceFewestMistakes = 0;
+        } else {
+            sinceFewestMistakes++;
+        }
+        if (validationError < bestValidationError) {
+            bestValidationError = validationError;
+            sinceBestValidationError = 0;
+        } else if (!Double.isNaN(validationError)) {
+            sinceBestValidationError++;
+        }
+
+        mistakes = 0;
+        epochStart = now;
+
+        return (maxEpochs > 0 && statistics.size() >= maxEpochs)
+                || (plateauPatience > 0 && sinceFewestMistakes >= plateauPatience)
+                || (validationPatience > 0 && sinceBestValidationError >= validationPatience);
+    }
+
+    // whether the pass just recorded has the lowest validation error so far
+    boolean bestValidationEpoch() {
+        return sinceBestValidationError == 0 && bestValidationError != Double.POSITIVE_INFINITY;
+    }
+
+    List<EpochStatistics> statistics() {
+        return Collections.unmodifiableList(statistics);
+    }
+}
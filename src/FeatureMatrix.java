@@ -0,0 +1,136 @@
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+// Packs a set of Instances into primitive arrays once, so the training loops can run
+// without calling back into weka.core.Instance for every attribute of every row.
+//
+// Instances made of SparseInstance are packed in compressed sparse row (CSR) form instead, which
+// only holds the non-zero values, so the cost of a row is its number of non-zeros rather than
+// numFeatures. Use isSparse() to tell the two forms apart; MatrixView and VectorOps handle both.
+class FeatureMatrix {
+
+    // row-major feature values, numFeatures per row (the class attribute is not included);
+    // for a sparse matrix, the non-zero values of every row one after the other
+    final double[] values;
+    // sparse only (null when dense): the non-zero values of row r are values[rowStart[r] ..
+    // rowStart[r + 1]), and indices holds the attribute of each of them, in increasing order
+    final int[] rowStart;
+    final int[] indices;
+    // -1 when the class value is 0, otherwise 1 (the same mapping innerBuild has always used)
+    final byte[] targets;
+    // the class value itself, i.e. the class index for a nominal class, which is why a nominal
+    // class can have at most MAX_CLASSES values
+    final byte[] classes;
+
+    final int numRows;
+    final int numFeatures;
+    // number of values of a nominal class, 0 for a numeric class
+    final int numClasses;
+
+    static final int MAX_CLASSES = Byte.MAX_VALUE + 1;
+
+    FeatureMatrix(Instances instances) {
+        this.numRows = instances.numInstances();
+        this.numFeatures = instances.numAttributes() - 1;
+        this.numClasses = instances.classAttribute().isNominal() ? instances.numClasses() : 0;
+        if (numClasses > MAX_CLASSES) {
+            throw new IllegalArgumentException("A nominal class can have at most " + MAX_CLASSES + " values, "
+                    + instances.classAttribute().name() + " has " + numClasses);
+        }
+        this.targets = new byte[numRows];
+        this.classes = new byte[numRows];
+
+        if (numRows > 0 && instances.get(0) instanceof SparseInstance) {
+            // count the non-zeros first, so the arrays are allocated once at their final size
+            rowStart = new int[numRows + 1];
+            for (int row = 0; row < numRows; row++) {
+                rowStart[row + 1] = rowStart[row] + nonZeros(instances.get(row));
+            }
+            values = new double[rowStart[numRows]];
+            indices = new int[rowStart[numRows]];
+            for (int row = 0; row < numRows; row++) {
+                Instance instance = instances.get(row);
+                int position = rowStart[row];
+                for (int j = 0; j < instance.numValues(); j++) {
+                    int attribute = instance.index(j);
+                    if (attribute < numFeatures && instance.valueSparse(j) != 0) {
+                        values[position] = instance.valueSparse(j);
+                        indices[position] = attribute;
+                        position++;
+                    }
+                }
+                targets[row] = (byte) (instance.classValue() == 0 ? -1 : 1);
+                classes[row] = (byte) instance.classValue();
+            }
+            return;
+        }
+
+        this.values = new double[numRows * numFeatures];
+        this.rowStart = null;
+        this.indices = null;
+
+        int offset = 0;
+        for (int row = 0; row < numRows; row++) {
+            Instance instance = instances.get(row);
+            for (int i = 0; i < numFeatures; i++) {
+                values[offset + i] = instance.value(i);
+            }
+            targets[row] = (byte) (instance.classValue() == 0 ? -1 : 1);
+            classes[row] = (byte) instance.classValue();
+            offset += numFeatures;
+        }
+    }
+
+    // wraps values, targets and class values that are already packed, e.g. by BinaryDataset.load
+    FeatureMatrix(double[] values, byte[] targets, byte[] classes, int numRows, int numFeatures, int numClasses) {
+        this(values, null, null, targets, classes, numRows, numFeatures, numClasses);
+    }
+
+    // wraps a matrix already in CSR form, or a dense one when rowStart and indices are null
+    FeatureMatrix(double[] values, int[] rowStart, int[] indices, byte[] targets, byte[] classes, int numRows,
+                  int numFeatures, int numClasses) {
+        this.values = values;
+        this.rowStart = rowStart;
+        this.indices = indices;
+        this.targets = targets;
+        this.classes = classes;
+        this.numRows = numRows;
+        this.numFeatures = numFeatures;
+        this.numClasses = numClasses;
+    }
+
+    boolean isSparse() {
+        return rowStart != null;
+    }
+
+    // start of a row of a dense matrix in values
+    int offset(int row) {
+        return row * numFeatures;
+    }
+
+    // the same matrix in dense form, e.g. for BinaryDataset, which only stores dense rows
+    FeatureMatrix dense() {
+        if (!isSparse()) {
+            return this;
+        }
+        double[] dense = new double[numRows * numFeatures];
+        for (int row = 0; row < numRows; row++) {
+            for (int j = rowStart[row]; j < rowStart[row + 1]; j++) {
+                dense[offset(row) + indices[j]] = values[j];
+            }
+        }
+        return new FeatureMatrix(dense, targets, classes, numRows, numFeatures, numClasses);
+    }
+
+    // non-zero feature values of a sparse instance, leaving out the class
+    private int nonZeros(Instance instance) {
+        int count = 0;
+        for (int j = 0; j < instance.numValues(); j++) {
+            if (instance.index(j) < numFeatures && instance.valueSparse(j) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
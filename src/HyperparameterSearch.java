@@ -0,0 +1,306 @@
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Tunes EnhancedLinearPerceptron's learning rate, bias, update mode and standardisation.
+//
+// The data is packed once and split into a training and a validation part, both index views over
+// that one read-only matrix (plus one standardised copy for the candidates that standardise).
+// Candidates are searched by successive halving: every candidate trains for minEpochs passes,
+// the best 1/eta of them go on to train for eta times as many passes, and so on until one
+// candidate is left or maxEpochs is reached. Each round's candidates run at once on a
+// work-stealing pool. Ties are broken by candidate order, so the result doesn't depend on the
+// number of threads.
+//
+//   java HyperparameterSearch <data.arff>
+public class HyperparameterSearch {
+
+    // one candidate setting of EnhancedLinearPerceptron's hyperparameters
+    public static class Configuration {
+        final double learningRate;
+        final int bias;
+        final boolean online;
+        final boolean standardise;
+
+        Configuration(double learningRate, int bias, boolean online, boolean standardise) {
+            this.learningRate = learningRate;
+            this.bias = bias;
+            this.online = online;
+            this.standardise = standardise;
+        }
+
+        // an untrained perceptron with this configuration
+        public EnhancedLinearPerceptron create() {
+            EnhancedLinearPerceptron perceptron = new EnhancedLinearPerceptron();
+            perceptron.setLearningRate(learningRate);
+            perceptron.setBias(bias);
+            perceptron.setOnline(online);
+            perceptron.setStandardise(standardise);
+            return perceptron;
+        }
+
+        @Override
+        public String toString() {
+            return "learningRate=" + learningRate + " bias=" + bias + " online=" + online + " standardise=" + standardise;
+        }
+    }
+
+    // one candidate trained for one round of the search
+    public static class Trial {
+        final Configuration configuration;
+        final int round;
+        final int epochs;
+        final double accuracy;
+        final long nanos;
+
+        Trial(Configuration configuration, int round, int epochs, double accuracy, long nanos) {
+            this.configuration = configuration;
+            this.round = round;
+            this.epochs = epochs;
+            this.accuracy = accuracy;
+            this.nanos = nanos;
+        }
+    }
+
+    public static class Result {
+        final Configuration best;
+        final List<Trial> trials;
+
+        Result(Configuration best, List<Trial> trials) {
+            this.best = best;
+            this.trials = trials;
+        }
+
+        public Configuration getBest() {
+            return best;
+        }
+
+        public List<Trial> getTrials() {
+            return trials;
+        }
+
+        // every trial, round by round, best first within a round
+        public String table() {
+            StringBuilder table = new StringBuilder(String.format("%-6s %-7s %-10s %-9s %s%n", "round", "epochs", "accuracy", "ms", "configuration"));
+            for (Trial trial : trials) {
+                table.append(String.format("%-6d %-7d %-10.2f %-9.1f %s%n", trial.round, trial.epochs, trial.accuracy,
+                        trial.nanos / 1e6, trial.configuration));
+            }
+            table.append("best: ").append(best);
+            return table.toString();
+        }
+    }
+
+    private double[] learningRates = {0.01, 0.1, 1};
+    private int[] biases = {0, 1};
+    private boolean[] onlineModes = {true, false};
+    private boolean[] standardiseModes = {false, true};
+
+    // when above 0, that many random configurations are searched instead of the grid
+    private int randomCandidates = 0;
+
+    private int minEpochs = 1;
+    private int maxEpochs = 27;
+    private int eta = 3;
+    private double validationProportion = 0.25;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    private long seed = 0;
+    private boolean seedSet = false;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.out.println("Usage: java HyperparameterSearch <data.arff>");
+            return;
+        }
+        Instances instances = Main.loadData(args[0]);
+        instances.setClassIndex(instances.numAttributes() - 1);
+
+        HyperparameterSearch search = new HyperparameterSearch();
+        search.setSeed(0);
+        System.out.println(search.search(instances).table());
+    }
+
+    public Result search(Instances instances) throws Exception {
+        new EnhancedLinearPerceptron().getCapabilities().testWithFail(instances);
+        return search(new FeatureMatrix(instances));
+    }
+
+    Result search(FeatureMatrix matrix) throws Exception {
+        if (eta < 2) {
+            throw new IllegalArgumentException("eta must be at least 2, was " + eta);
+        }
+        Random rand = seedSet ? new Random(seed) : new Random();
+
+        // split off the validation rows, then standardise a copy using the training rows' statistics only
+        int[] rows = MatrixView.shuffledRows(matrix.numRows, rand);
+        int numValidation = (int) (matrix.numRows * validationProportion);
+        int[] validation = Arrays.copyOfRange(rows, 0, numValidation);
+        int[] train = Arrays.copyOfRange(rows, numValidation, rows.length);
+        FeatureMatrix standardised = standardise(matrix, train);
+
+        List<Configuration> candidates = candidates(rand);
+        List<Trial> trials = new ArrayList<>();
+        ExecutorService executor = Executors.newWorkStealingPool(Math.max(1, numThreads));
+        try {
+            int epochs = minEpochs;
+            for (int round = 0; ; round++) {
+                List<Future<Trial>> results = new ArrayList<>();
+                for (Configuration candidate : candidates) {
+                    FeatureMatrix data = candidate.standardise ? standardised : matrix;
+                    final int currentRound = round;
+                    final int currentEpochs = epochs;
+                    results.add(executor.submit(() -> evaluate(candidate, new MatrixView(data, train, null),
+                            new MatrixView(data, validation, null), data.numClasses, currentRound, currentEpochs)));
+                }
+
+                List<Trial> roundTrials = new ArrayList<>();
+                for (Future<Trial> result : results) {
+                    roundTrials.add(result.get());
+                }
+                // stable sort, so equal accuracies keep their candidate order
+                roundTrials.sort(Comparator.comparingDouble((Trial trial) -> trial.accuracy).reversed());
+                trials.addAll(roundTrials);
+
+                if (roundTrials.size() == 1 || epochs >= maxEpochs) {
+                    return new Result(roundTrials.get(0).configuration, trials);
+                }
+
+                // the best 1/eta go through to the next round, with eta times the training
+                int keep = Math.max(1, roundTrials.size() / eta);
+                candidates = new ArrayList<>();
+                for (int i = 0; i < keep; i++) {
+                    candidates.add(roundTrials.get(i).configuration);
+                }
+                epochs = Math.min(maxEpochs, epochs * eta);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private Trial evaluate(Configuration configuration, MatrixView train, MatrixView validation, int numClasses,
+                           int round, int epochs) {
+        long start = System.nanoTime();
+        EnhancedLinearPerceptron perceptron = configuration.create();
+        perceptron.setMaxEpochs(epochs);
+        perceptron.initialiseWeights(train.numFeatures, numClasses);
+        int correct = perceptron.trainAndTest(train, validation, configuration.online);
+        double accuracy = validation.numRows == 0 ? 0 : (100.0 * correct) / validation.numRows;
+        return new Trial(configuration, round, epochs, accuracy, System.nanoTime() - start);
+    }
+
+    private List<Configuration> candidates(Random rand) {
+        List<Configuration> candidates = new ArrayList<>();
+        if (randomCandidates > 0) {
+            // learning rates drawn log-uniformly between the smallest and largest in the grid
+            double low = Math.log(Arrays.stream(learningRates).min().getAsDouble());
+            double high = Math.log(Arrays.stream(learningRates).max().getAsDouble());
+            for (int i = 0; i < randomCandidates; i++) {
+                candidates.add(new Configuration(Math.exp(low + (high - low) * rand.nextDouble()),
+                        biases[rand.nextInt(biases.length)], onlineModes[rand.nextInt(onlineModes.length)],
+                        standardiseModes[rand.nextInt(standardiseModes.length)]));
+            }
+            return candidates;
+        }
+        for (double learningRate : learningRates) {
+            for (int bias : biases) {
+                for (boolean online : onlineModes) {
+                    for (boolean standardise : standardiseModes) {
+                        candidates.add(new Configuration(learningRate, bias, online, standardise));
+                    }
+                }
+            }
+        }
+        return candidates;
+    }
+
+    // a standardised copy of the matrix, with the mean and standard deviation taken from the given
+    // rows; a sparse matrix is only scaled, not centred, as EnhancedLinearPerceptron does
+    private static FeatureMatrix standardise(FeatureMatrix matrix, int[] rows) {
+        RunningStatistics statistics = new RunningStatistics(matrix.numFeatures);
+        for (int row : rows) {
+            if (matrix.isSparse()) {
+                statistics.add(matrix.values, matrix.indices, matrix.rowStart[row], matrix.rowStart[row + 1]);
+            } else {
+                statistics.add(matrix.values, matrix.offset(row));
+            }
+        }
+        double[] means = new double[matrix.numFeatures];
+        double[] stds = new double[matrix.numFeatures];
+        statistics.copyTo(means, stds);
+
+        if (matrix.isSparse()) {
+            double[] values = new double[matrix.values.length];
+            for (int j = 0; j < values.length; j++) {
+                int attribute = matrix.indices[j];
+                values[j] = stds[attribute] == 0 ? 0 : matrix.values[j] / stds[attribute];
+            }
+            return new FeatureMatrix(values, matrix.rowStart, matrix.indices, matrix.targets, matrix.classes,
+                    matrix.numRows, matrix.numFeatures, matrix.numClasses);
+        }
+
+        double[] values = new double[matrix.values.length];
+        for (int row = 0; row < matrix.numRows; row++) {
+            int offset = matrix.offset(row);
+            for (int i = 0; i < matrix.numFeatures; i++) {
+                // an attribute that never varies has nothing to scale by
+                values[offset + i] = stds[i] == 0 ? 0 : (matrix.values[offset + i] - means[i]) / stds[i];
+            }
+        }
+        return new FeatureMatrix(values, matrix.targets, matrix.classes, matrix.numRows, matrix.numFeatures,
+                matrix.numClasses);
+    }
+
+    public void setLearningRates(double[] learningRates) {
+        this.learningRates = learningRates;
+    }
+
+    public void setBiases(int[] biases) {
+        this.biases = biases;
+    }
+
+    public void setOnlineModes(boolean[] onlineModes) {
+        this.onlineModes = onlineModes;
+    }
+
+    public void setStandardiseModes(boolean[] standardiseModes) {
+        this.standardiseModes = standardiseModes;
+    }
+
+    public void setRandomCandidates(int randomCandidates) {
+        this.randomCandidates = randomCandidates;
+    }
+
+    public void setMinEpochs(int minEpochs) {
+        this.minEpochs = minEpochs;
+    }
+
+    public void setMaxEpochs(int maxEpochs) {
+        this.maxEpochs = maxEpochs;
+    }
+
+    public void setEta(int eta) {
+        this.eta = eta;
+    }
+
+    public void setValidationProportion(double validationProportion) {
+        this.validationProportion = validationProportion;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+        seedSet = true;
+    }
+}
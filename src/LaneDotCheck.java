@@ -0,0 +1,247 @@
+import weka.core.Instances;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Checks VectorOps.laneDot, the opt-in reordered dot product (-Dperceptron.laneDot=true), against
+// the scalar one it replaces, on wall-following. laneDot is VectorKernels' Vector API dot when the
+// jdk.incubator.vector module is there, and the four-accumulator unrolledDot when it isn't; the
+// kernels part checks both (the vector one only with the module), the weights part whichever
+// laneDot picks:
+//   kernels  every row of the training set is dotted with random weights, over the full width
+//            and over random attribute subsets, each way. Summing the same n products in a
+//            different order moves the result by at most 2 * gamma(n) * sum|w_i x_i|, where
+//            gamma(n) = n u / (1 - n u) and u = 2^-53 is the unit roundoff; that is the
+//            tolerance, and the check fails if any result is further apart than it. The vector
+//            updates are checked to give exactly what the scalar loop does.
+//   weights  LinearPerceptron (two and four classes), EnhancedLinearPerceptron (online and
+//            offline, standardised) and the ensemble are trained in two child JVMs, one with
+//            each dot product, and their weights compared. The updates are the same either way,
+//            so the weights only differ if a score lands within the tolerance of 0 and gets the
+//            other sign; the check expects them to be bit-for-bit the same.
+// Exits with status 1 if either part fails.
+//
+//   java --add-modules jdk.incubator.vector LaneDotCheck
+public class LaneDotCheck {
+
+    private static final double UNIT_ROUNDOFF = Math.ulp(1.0) / 2;
+    private static final int EPOCHS = 10;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("weights")) {
+            printWeights();
+            return;
+        }
+        Instances train = Main.loadData("wall-following/wall-following_TRAIN.arff");
+        train.setClassIndex(train.numAttributes() - 1);
+
+        boolean passed = checkKernels(new FeatureMatrix(train));
+        passed &= checkWeights();
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean checkKernels(FeatureMatrix matrix) {
+        boolean passed = checkDot("unrolled", matrix, false);
+        if (VectorOps.VECTOR) {
+            passed &= checkDot("vector", matrix, true);
+            passed &= checkAxpy(matrix);
+        } else {
+            System.out.println("vector: not checked, run with --add-modules jdk.incubator.vector");
+        }
+        return passed;
+    }
+
+    private static boolean checkDot(String name, FeatureMatrix matrix, boolean vector) {
+        Random rand = new Random(0);
+        double[] weights = new double[matrix.numFeatures];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = rand.nextGaussian();
+        }
+
+        int dots = 0;
+        int identical = 0;
+        int outside = 0;
+        // the largest difference seen, as a share of the tolerance
+        double worst = 0;
+        for (int row = 0; row < matrix.numRows; row++) {
+            int offset = matrix.offset(row);
+            double scalar = VectorOps.scalarDot(weights, matrix.values, offset, matrix.numFeatures);
+            double lane = vector ? VectorKernels.dot(weights, matrix.values, offset, matrix.numFeatures)
+                    : VectorOps.unrolledDot(weights, matrix.values, offset, matrix.numFeatures);
+            double tolerance = tolerance(weights, matrix.values, offset, null, matrix.numFeatures);
+
+            // a random half of the attributes, as an ensemble member would keep
+            int[] attributes = subset(matrix.numFeatures, rand);
+            double gatherScalar = VectorOps.scalarDot(weights, matrix.values, offset, attributes);
+            double gatherLane = vector ? VectorKernels.dot(weights, matrix.values, offset, attributes)
+                    : VectorOps.unrolledDot(weights, matrix.values, offset, attributes);
+            double gatherTolerance = tolerance(weights, matrix.values, offset, attributes, attributes.length);
+
+            for (double[] pair : new double[][]{{scalar, lane, tolerance}, {gatherScalar, gatherLane, gatherTolerance}}) {
+                double difference = Math.abs(pair[0] - pair[1]);
+                dots++;
+                if (difference == 0) {
+                    identical++;
+                } else if (difference > pair[2]) {
+                    outside++;
+                }
+                if (pair[2] > 0) {
+                    worst = Math.max(worst, difference / pair[2]);
+                }
+            }
+        }
+        System.out.printf("%s: %d dot products, %d identical, %d outside the tolerance, largest difference %.4f of it%n",
+                name, dots, identical, outside, worst);
+        return outside == 0;
+    }
+
+    // every row added to random weights by the vector updates and by the scalar loop, full width
+    // and gathered; the two have to agree exactly
+    private static boolean checkAxpy(FeatureMatrix matrix) {
+        Random rand = new Random(0);
+        int updates = 0;
+        int different = 0;
+        for (int row = 0; row < matrix.numRows; row++) {
+            int offset = matrix.offset(row);
+            double adjustment = rand.nextGaussian();
+            int[] attributes = subset(matrix.numFeatures, rand);
+            for (int[] a : new int[][]{null, attributes}) {
+                int length = a == null ? matrix.numFeatures : a.length;
+                double[] vector = new double[length];
+                for (int i = 0; i < length; i++) {
+                    vector[i] = rand.nextGaussian();
+                }
+                double[] scalar = vector.clone();
+                for (int i = 0; i < length; i++) {
+                    scalar[i] = scalar[i] + (adjustment * matrix.values[offset + (a == null ? i : a[i])]);
+                }
+                if (a == null) {
+                    VectorKernels.axpy(vector, adjustment, matrix.values, offset, length);
+                } else {
+                    VectorKernels.axpy(vector, adjustment, matrix.values, offset, a);
+                }
+                updates++;
+                if (!Arrays.equals(vector, scalar)) {
+                    different++;
+                }
+            }
+        }
+        System.out.printf("vector updates: %d, %d different from the scalar loop%n", updates, different);
+        return different == 0;
+    }
+
+    // 2 * gamma(n) * sum |w_i x_i|, see the class comment
+    private static double tolerance(double[] weights, double[] values, int offset, int[] attributes, int length) {
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += Math.abs(weights[i] * values[offset + (attributes == null ? i : attributes[i])]);
+        }
+        double gamma = length * UNIT_ROUNDOFF / (1 - length * UNIT_ROUNDOFF);
+        return 2 * gamma * sum;
+    }
+
+    private static int[] subset(int width, Random rand) {
+        int[] shuffled = MatrixView.shuffledRows(width, rand);
+        int[] attributes = Arrays.copyOf(shuffled, width / 2);
+        Arrays.sort(attributes);
+        return attributes;
+    }
+
+    private static boolean checkWeights() throws Exception {
+        List<String> scalar = weights(false);
+        List<String> lane = weights(true);
+
+        int identical = 0;
+        double worst = 0;
+        for (int i = 0; i < Math.min(scalar.size(), lane.size()); i++) {
+            String[] a = scalar.get(i).split(" ");
+            String[] b = lane.get(i).split(" ");
+            double x = Double.parseDouble(a[2]);
+            double y = Double.parseDouble(b[2]);
+            if (a[1].equals(b[1]) && Double.doubleToLongBits(x) == Double.doubleToLongBits(y)) {
+                identical++;
+            } else {
+                worst = Math.max(worst, Math.abs(x - y) / Math.max(Math.abs(x), Double.MIN_NORMAL));
+            }
+        }
+        boolean passed = scalar.size() == lane.size() && identical == scalar.size();
+        System.out.printf("weights: %d of %d bit-for-bit the same, largest relative difference %.3g%n",
+                identical, Math.max(scalar.size(), lane.size()), worst);
+        return passed;
+    }
+
+    // the "weight" lines a child JVM prints with the given dot product
+    private static List<String> weights(boolean laneDot) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        // the lane child uses the vector dot if this JVM could have
+        if (VectorOps.VECTOR) {
+            command.add("--add-modules=jdk.incubator.vector");
+        }
+        command.addAll(List.of("-Dperceptron.laneDot=" + laneDot,
+                "-cp", System.getProperty("java.class.path"), "LaneDotCheck", "weights"));
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        List<String> lines = new ArrayList<>();
+        for (String line : new String(process.getInputStream().readAllBytes()).split("\\R")) {
+            // leaving out any warnings weka printed while loading
+            if (line.startsWith("weight ")) {
+                lines.add(line);
+            }
+        }
+        if (process.waitFor() != 0) {
+            throw new IOException("LaneDotCheck weights exited with " + process.exitValue());
+        }
+        return lines;
+    }
+
+    // what a child JVM does: trains every model and prints its weights as "weight <model> <value>"
+    private static void printWeights() throws Exception {
+        Instances train = Main.loadData("wall-following/wall-following_TRAIN.arff");
+        train.setClassIndex(train.numAttributes() - 1);
+        Instances binary = Benchmark.binary(train);
+
+        StringBuilder out = new StringBuilder();
+        for (Instances instances : new Instances[]{binary, train}) {
+            LinearPerceptron perceptron = new LinearPerceptron();
+            perceptron.setMaxEpochs(EPOCHS);
+            perceptron.buildClassifier(instances);
+            String name = "LinearPerceptron/" + instances.numClasses();
+            if (perceptron.getClassWeights() != null) {
+                for (double[] classWeights : perceptron.getClassWeights()) {
+                    append(out, name, classWeights);
+                }
+            } else {
+                append(out, name, perceptron.getWeights());
+            }
+        }
+        for (boolean online : new boolean[]{true, false}) {
+            EnhancedLinearPerceptron enhanced = new EnhancedLinearPerceptron();
+            enhanced.setOnline(online);
+            enhanced.setStandardise(true);
+            enhanced.setMaxEpochs(EPOCHS);
+            enhanced.buildClassifier(binary);
+            append(out, "Enhanced/" + (online ? "online" : "offline"), enhanced.getWeights());
+        }
+        LinearPerceptronEnsemble ensemble = new LinearPerceptronEnsemble();
+        ensemble.setSeed(0);
+        ensemble.setMaxEpochs(EPOCHS);
+        ensemble.buildClassifier(binary, 0.5);
+        for (LinearPerceptron member : ensemble.linearPerceptrons) {
+            append(out, "Ensemble", member.getWeights());
+        }
+        System.out.print(out);
+    }
+
+    private static void append(StringBuilder out, String name, double[] weights) {
+        for (double weight : weights) {
+            out.append("weight ").append(name).append(' ').append(weight).append(System.lineSeparator());
+        }
+    }
+}
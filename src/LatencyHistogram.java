@@ -0,0 +1,108 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// A lock-free histogram of nanosecond latencies in the style of HdrHistogram: values below 32 get
+// a bucket each, and above that every power of two is split into 32 equal buckets, so any value
+// is recorded to within about 3% across the whole range of a long in under 2000 counters.
+// Recording is one atomic increment, so many threads can record into the same histogram.
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // the linear buckets, then SUB_BUCKETS for every power of two from SUB_BUCKETS up to 2^62
+    private static final int NUM_BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+    public void record(long nanos) {
+        record(nanos, 1);
+    }
+
+    // records count values of nanos each
+    public void record(long nanos, long count) {
+        counts.addAndGet(bucket(Math.max(0, nanos)), count);
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        // the top SUB_BUCKET_BITS + 1 bits of the value, less the leading one
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+    }
+
+    // the smallest value that lands in bucket
+    static long lowestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << shift;
+    }
+
+    // the largest value that lands in bucket
+    static long highestValue(int bucket) {
+        return bucket == NUM_BUCKETS - 1 ? Long.MAX_VALUE : lowestValue(bucket + 1) - 1;
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    // The value at or below which percentile (0 to 100) of the recorded values fall, given as the
+    // top of its bucket; 0 when nothing has been recorded. Values recorded while this runs may or
+    // may not be counted.
+    public long percentile(double percentile) {
+        long[] snapshot = new long[NUM_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return highestValue(i);
+            }
+        }
+        return highestValue(NUM_BUCKETS - 1);
+    }
+
+    // the mean of the recorded values, each taken as the middle of its bucket
+    public double mean() {
+        long count = 0;
+        double sum = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            long bucketCount = counts.get(i);
+            if (bucketCount > 0) {
+                count += bucketCount;
+                sum += bucketCount * (lowestValue(i) / 2.0 + highestValue(i) / 2.0);
+            }
+        }
+        return count == 0 ? 0 : sum / count;
+    }
+
+    public void reset() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "count " + count() + ", mean " + (long) mean() + " ns, p50 " + percentile(50) + " ns, p90 "
+                + percentile(90) + " ns, p99 " + percentile(99) + " ns, p99.9 " + percentile(99.9) + " ns";
+    }
+}
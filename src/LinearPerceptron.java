@@ -1,15 +1,32 @@
 import weka.classifiers.AbstractClassifier;
+import weka.classifiers.UpdateableClassifier;
 import weka.core.Capabilities;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.SparseInstance;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-public class LinearPerceptron extends AbstractClassifier {
+public class LinearPerceptron extends AbstractClassifier implements UpdateableClassifier {
+
+    // the name this classifier reports to its metrics hook under
+    static final String NAME = "LinearPerceptron";
 
     private Instances instances;
 
     private double[] weights;
+    // one weight vector per class when the class has more than two values, otherwise null
+    private double[][] classWeights;
+    // attributes of the full instance this perceptron uses, or null for all of them
+    private int[] attributes;
+    // when attributes is set, the weight of each attribute of the full instance, -1 for one not
+    // used; lets sparse rows be scored from their non-zeros alone
+    private int[] positions;
 
     private double learningRate = 1;
     private double adjustment = 0;
@@ -18,6 +35,19 @@ public class LinearPerceptron extends AbstractClassifier {
     private int bias = 0;
     private int stoppingCondition = 0;
     private int k = 4;
+    // threads for hogwild training; 1 trains with the usual serial loop
+    private int hogwildThreads = 1;
+    // epoch-level stopping rules, see EpochMonitor; maxEpochs bounds training on data that isn't separable
+    private int maxEpochs = 1000;
+    private int plateauPatience = 0;
+    private int validationPatience = 0;
+    // share of the training rows held out to measure the validation error after every epoch
+    private double validationProportion = 0;
+
+    // one entry per epoch of the last build
+    private List<EpochMonitor.EpochStatistics> epochStatistics = new ArrayList<>();
+    // where timings and epochs are reported, null for nowhere
+    private TrainingMetrics metrics = null;
 
     private boolean weightsSet = false;
     private boolean training = true;
@@ -25,49 +55,289 @@ public class LinearPerceptron extends AbstractClassifier {
     @Override
     public void buildClassifier(Instances instances) throws Exception {
         this.instances = instances;
-        this.numAttributes = instances.numAttributes();
+
+        getCapabilities().testWithFail(instances);
+
+        // pack the instances once so the training loop only touches primitive arrays
+        long start = metrics == null ? 0 : System.nanoTime();
+        FeatureMatrix matrix = new FeatureMatrix(instances);
+        if (metrics != null) {
+            metrics.phase(NAME, TrainingMetrics.Phase.LOAD, System.nanoTime() - start);
+        }
+        buildClassifier(matrix);
+    }
+
+    // trains straight from packed data, e.g. a dataset loaded by BinaryDataset.load
+    void buildClassifier(FeatureMatrix matrix) throws Exception {
+        long start = metrics == null ? 0 : System.nanoTime();
+        MatrixView view = new MatrixView(matrix);
+        if (matrix.numClasses > 2) {
+            buildOneVsRest(view, matrix.numClasses);
+        } else {
+            buildClassifier(view);
+        }
+        if (metrics != null) {
+            metrics.phase(NAME, TrainingMetrics.Phase.TRAIN, System.nanoTime() - start);
+        }
+    }
+
+    // trains on a view of a shared matrix, used by the ensemble so its members don't need
+    // their own copies of the instances
+    void buildClassifier(MatrixView view) throws Exception {
+        this.numAttributes = view.numFeatures + 1;
+        this.attributes = view.attributes;
+        this.positions = attributes == null ? null : MatrixView.positions(attributes, view.matrix.numFeatures);
+        // two classes: drop any one-vs-rest vectors left from an earlier build on more classes
+        classWeights = null;
+        training = true;
 
         //set default value for weights if not specified
         if(!weightsSet){
-            double[] newWeights = new double[instances.numAttributes()-1];
-            for(int i = 0; i<instances.numAttributes()-1; i++){
+            double[] newWeights = new double[numAttributes-1];
+            for(int i = 0; i<numAttributes-1; i++){
                 newWeights[i] = 1;
             }
             weights = newWeights;
         }
 
-        getCapabilities().testWithFail(instances);
+        if (hogwildThreads > 1) {
+            innerBuildHogwild(view);
+            epochStatistics = new ArrayList<>();
+        } else {
+            MatrixView[] split = view.holdOut(validationProportion);
+            EpochMonitor monitor = new EpochMonitor(split[0].numRows, maxEpochs, plateauPatience, validationPatience)
+                .reportTo(metrics, NAME);
+            innerBuild(split[0], split[1], monitor);
+            epochStatistics = monitor.statistics();
+        }
+        training=false;
+    }
+
+    // Hogwild training: the rows are split into one shard per thread, and every thread runs the
+    // online loop on its own shard against the one shared weight vector (or with more than two
+    // classes, the shared one-vs-rest weight vectors), with no locks. A thread
+    // stops after a full pass over its shard with no mistakes, or once it has used its share of
+    // stoppingCondition, or after maxEpochs passes over its shard. Updates from different threads
+    // can interleave and occasionally overwrite each other (see VectorOps.opaqueAxpy), and a shard
+    // that has converged can be pushed off again by the others, so the weights are not the ones
+    // the serial loop would learn and can be a little less accurate. In exchange the row visits
+    // are spread over all the threads. No per-epoch statistics are kept, as the shards' passes
+    // don't line up, and no validation rows are held out.
+    private void innerBuildHogwild(MatrixView view) throws Exception {
+        int threads = Math.max(1, Math.min(hogwildThreads, view.numRows));
+        // visits allowed by stoppingCondition, which counts them from 1; no limit if it isn't positive
+        long budget = stoppingCondition > 0 ? stoppingCondition - 1 : -1;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        boolean cancelled = false;
+        try {
+            List<Future<Boolean>> shards = new ArrayList<>();
+            for (int s = 0; s < threads; s++) {
+                int from = (int) ((long) s * view.numRows / threads);
+                int to = (int) ((long) (s + 1) * view.numRows / threads);
+                int[] rows = new int[to - from];
+                for (int i = 0; i < rows.length; i++) {
+                    rows[i] = view.row(from + i);
+                }
+                MatrixView shard = new MatrixView(view.matrix, rows, view.attributes);
+                long shardBudget = budget < 0 ? -1 : budget * rows.length / view.numRows;
+                long epochBudget = maxEpochs > 0 ? (long) maxEpochs * rows.length : -1;
+                // only running out of stoppingCondition counts as cancelled, as in the serial loop
+                boolean capped = epochBudget >= 0 && (shardBudget < 0 || epochBudget < shardBudget);
+                long visits = capped ? epochBudget : shardBudget;
+                shards.add(executor.submit(() -> innerBuildShard(shard, visits) && !capped));
+            }
+            for (Future<Boolean> shard : shards) {
+                cancelled |= shard.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        if (cancelled) {
+            System.out.println("Process cancelled as reached max number of iterations");
+        }
+    }
+
+    // the online loop over one shard, on the shared weights; returns whether it ran out of visits
+    private boolean innerBuildShard(MatrixView shard, long budget) {
+        int cont = 0;
+        int x = 0;
+        long visits = 0;
+
+        while (cont != shard.numRows && visits != budget) {
+            boolean mistake;
+            if (classWeights != null) {
+                // one-vs-rest, as in innerBuildOneVsRest: every class's perceptron is scored on
+                // the row, and the ones that got it wrong are updated
+                mistake = false;
+                int classIndex = shard.classIndex(x);
+                for (int c = 0; c < classWeights.length; c++) {
+                    mistake |= hogwildStep(shard, classWeights[c], c == classIndex ? 1 : -1, x);
+                }
+            } else {
+                mistake = hogwildStep(shard, weights, shard.target(x), x);
+            }
+            if (mistake) {
+                cont = 0;
+            } else {
+                cont++;
+            }
+
+            if (x == shard.numRows - 1) {
+                x = 0;
+            } else {
+                x++;
+            }
+
+            visits++;
+        }
+        return visits == budget;
+    }
+
+    // one perceptron step on the x-th row of a shard against shared weights; returns whether it
+    // was a mistake
+    private boolean hogwildStep(MatrixView shard, double[] weights, double t, int x) {
+        double result = shard.opaqueDot(weights, x) + bias;
+        result = result < 0 ? -1 : result > 0 ? 1 : 0;
+        if (result == t) {
+            return false;
+        }
+        double adjustment = (0.5 * (learningRate)) * (t - result);
+        shard.opaqueAxpy(weights, adjustment, x);
+        return true;
+    }
 
-        innerBuild(instances);
+    // one perceptron per class, each trained to tell its class apart from all the others
+    private void buildOneVsRest(MatrixView view, int numClasses) throws Exception {
+        this.numAttributes = view.numFeatures + 1;
+        this.attributes = view.attributes;
+        this.positions = attributes == null ? null : MatrixView.positions(attributes, view.matrix.numFeatures);
+        training = true;
+
+        classWeights = new double[numClasses][];
+        for (int c = 0; c < numClasses; c++) {
+            if (weightsSet) {
+                classWeights[c] = weights.clone();
+            } else {
+                classWeights[c] = new double[numAttributes-1];
+                Arrays.fill(classWeights[c], 1);
+            }
+        }
+
+        if (hogwildThreads > 1) {
+            innerBuildHogwild(view);
+            epochStatistics = new ArrayList<>();
+        } else {
+            MatrixView[] split = view.holdOut(validationProportion);
+            EpochMonitor monitor = new EpochMonitor(split[0].numRows, maxEpochs, plateauPatience, validationPatience)
+                    .reportTo(metrics, NAME);
+            innerBuildOneVsRest(split[0], split[1], monitor);
+            epochStatistics = monitor.statistics();
+        }
         training=false;
     }
 
-    private void innerBuild(Instances instances){
+    // Trains all the per-class perceptrons together: each row is read once per visit and scored
+    // against every class, and only the perceptrons that got it wrong are updated. Stops after a
+    // full pass in which none of them made a mistake, or when the monitor says so at the end of
+    // a pass. A row counts as one mistake however many of the perceptrons got it wrong.
+    private void innerBuildOneVsRest(MatrixView view, MatrixView validation, EpochMonitor monitor){
         int cont = 0;
         int x = 0;
         int runNum = 1;
+        boolean stopped = false;
+        // the weights after the pass with the lowest validation error
+        double[][] best = null;
 
         double t;
         double result;
 
-        while (cont != instances.numInstances() && runNum != stoppingCondition) {
-            Instance instance = instances.get(x);
-            result = classifier(instance);
-            if (instance.classValue() == 0) {
-                t = -1;
+        while (cont != view.numRows && runNum != stoppingCondition) {
+            boolean mistake = false;
+            int classIndex = view.classIndex(x);
+            for (int c = 0; c < classWeights.length; c++) {
+                result = classifier(classWeights[c], view, x);
+                t = c == classIndex ? 1 : -1;
+                if (result != t) {
+                    mistake = true;
+                    adjustment = (0.5 * (learningRate)) * (t - result);
+                    view.axpy(classWeights[c], adjustment, x);
+                }
+            }
+            if (mistake) {
+                cont = 0;
+                monitor.mistake();
             } else {
-                t = 1;
+                cont++;
             }
+
+            if (x == view.numRows - 1) {
+                stopped = monitor.endEpoch(validationError(classWeights, validation));
+                if (monitor.bestValidationEpoch()) {
+                    best = copy(classWeights);
+                }
+                if (stopped) {
+                    break;
+                }
+                x = 0;
+            } else {
+                x++;
+            }
+
+            runNum++;
+        }
+        // the pass that was cut short
+        if (!stopped && x != 0) {
+            monitor.endEpoch(validationError(classWeights, validation), x);
+            if (monitor.bestValidationEpoch()) {
+                best = null;
+            }
+        }
+        if (best != null) {
+            for (int c = 0; c < classWeights.length; c++) {
+                classWeights[c] = best[c];
+            }
+        }
+        if (runNum == stoppingCondition) {
+            System.out.println("Process cancelled as reached max number of iterations");
+        }
+    }
+
+    // The online loop: stops after a full pass with no mistakes, once stoppingCondition rows have
+    // been visited, or when the monitor says so at the end of a pass. With validation rows the
+    // weights that did best on them are kept.
+    private void innerBuild(MatrixView view, MatrixView validation, EpochMonitor monitor){
+        int cont = 0;
+        int x = 0;
+        int runNum = 1;
+        boolean stopped = false;
+        // the weights after the pass with the lowest validation error
+        double[] best = null;
+
+        double t;
+        double result;
+
+        while (cont != view.numRows && runNum != stoppingCondition) {
+            result = classifier(view, x);
+            t = view.target(x);
             if (result != t) {
                 cont = 0;
                 adjustment = (0.5 * (learningRate)) * (t - result);
                     // sends the weights double[] when set to Online update
-                    weights(weights, adjustment, instance);
+                    view.axpy(weights, adjustment, x);
+                monitor.mistake();
             } else {
                 cont++;
             }
 
-            if (x == instances.numInstances() - 1) {
+            if (x == view.numRows - 1) {
+                stopped = monitor.endEpoch(validationError(weights, validation));
+                if (monitor.bestValidationEpoch()) {
+                    best = weights.clone();
+                }
+                if (stopped) {
+                    break;
+                }
                 x = 0;
             } else {
                 x++;
@@ -75,21 +345,96 @@ public class LinearPerceptron extends AbstractClassifier {
 
             runNum++;
         }
+        // the pass that was cut short
+        if (!stopped && x != 0) {
+            monitor.endEpoch(validationError(weights, validation), x);
+            if (monitor.bestValidationEpoch()) {
+                best = null;
+            }
+        }
+        if (best != null) {
+            weights = best;
+        }
         if (runNum == stoppingCondition) {
             System.out.println("Process cancelled as reached max number of iterations");
         }
     }
 
+    // share of the validation rows the weights get wrong, NaN without validation rows
+    private double validationError(double[] weights, MatrixView validation) {
+        if (validation == null) {
+            return Double.NaN;
+        }
+        int wrong = 0;
+        for (int x = 0; x < validation.numRows; x++) {
+            if (classifier(weights, validation, x) != validation.target(x)) {
+                wrong++;
+            }
+        }
+        return (double) wrong / validation.numRows;
+    }
+
+    private double validationError(double[][] classWeights, MatrixView validation) {
+        if (validation == null) {
+            return Double.NaN;
+        }
+        int wrong = 0;
+        for (int x = 0; x < validation.numRows; x++) {
+            if (oneVsRest(classWeights, validation, x) != validation.classIndex(x)) {
+                wrong++;
+            }
+        }
+        return (double) wrong / validation.numRows;
+    }
+
+    private static double[][] copy(double[][] classWeights) {
+        double[][] copy = new double[classWeights.length][];
+        for (int c = 0; c < classWeights.length; c++) {
+            copy[c] = classWeights[c].clone();
+        }
+        return copy;
+    }
+
+    // Learns from one more instance without keeping it: a single perceptron step, the same one
+    // innerBuild takes for each row it visits. buildClassifier must have been called first,
+    // possibly with an empty set of instances, to fix the attributes and the initial weights.
+    @Override
+    public void updateClassifier(Instance instance) {
+        if (classWeights != null) {
+            int classIndex = (int) instance.classValue();
+            for (int c = 0; c < classWeights.length; c++) {
+                update(classWeights[c], c == classIndex ? 1 : -1, instance);
+            }
+        } else {
+            update(weights, instance.classValue() == 0 ? -1 : 1, instance);
+        }
+    }
+
+    private void update(double[] weights, double t, Instance instance) {
+        double result = bias + dot(weights, instance);
+        result = result < 0 ? -1 : result > 0 ? 1 : 0;
+        if (result != t) {
+            adjustment = (0.5 * (learningRate)) * (t - result);
+            weights(weights, adjustment, instance);
+        }
+    }
+
     //classify instance is called when classifying an instance
     public double classifyInstance(Instance instance) {
-        return classifier(instance);
+        if (metrics == null) {
+            return classifier(instance);
+        }
+        long start = System.nanoTime();
+        double label = classifier(instance);
+        metrics.prediction(NAME, 1, System.nanoTime() - start);
+        return label;
     }
 
     public double classifier(Instance instance){
-        double result = 0;
-        for (int i = 0; i < numAttributes - 1; i++) {
-            result += weights[i] * instance.value(i);
+        if (classWeights != null) {
+            return oneVsRest(instance);
         }
+        double result = dot(weights, instance);
         if(training) {
             result = result + bias;
         }
@@ -103,10 +448,207 @@ public class LinearPerceptron extends AbstractClassifier {
         }
     }
 
+    // same as classifier(Instance) but reads the x-th row of a packed matrix view
+    private double classifier(MatrixView view, int x){
+        return classifier(weights, view, x);
+    }
+
+    private double classifier(double[] weights, MatrixView view, int x){
+        double result = view.dot(weights, x);
+        if(training) {
+            result = result + bias;
+        }
+
+        if (result < 0) {
+            return -1;
+        } else if (result > 0){
+            return 1;
+        } else {
+            return 0;
+        }
+    }
+
+    // classifies every instance in one call, scoring straight off a packed copy of the rows
+    public double[] classifyBatch(Instances instances) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        FeatureMatrix matrix = new FeatureMatrix(instances);
+        double[] labels = new double[matrix.numRows];
+        for (int row = 0; row < matrix.numRows; row++) {
+            labels[row] = classifier(matrix, row);
+        }
+        if (metrics != null) {
+            metrics.prediction(NAME, labels.length, System.nanoTime() - start);
+        }
+        return labels;
+    }
+
+    // classifies rows of full-width feature values (no class column)
+    public double[] classifyBatch(double[][] rows) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        double[] labels = new double[rows.length];
+        for (int row = 0; row < rows.length; row++) {
+            labels[row] = classifier(rows[row], 0);
+        }
+        if (metrics != null) {
+            metrics.prediction(NAME, labels.length, System.nanoTime() - start);
+        }
+        return labels;
+    }
+
+    // classifies a row of a full-width matrix, dense or sparse
+    double classifier(FeatureMatrix matrix, int row) {
+        if (!matrix.isSparse()) {
+            return classifier(matrix.values, matrix.offset(row));
+        }
+        int from = matrix.rowStart[row];
+        int to = matrix.rowStart[row + 1];
+        if (classWeights != null) {
+            int best = 0;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int c = 0; c < classWeights.length; c++) {
+                double score = VectorOps.sparseDot(classWeights[c], matrix.values, matrix.indices, from, to, positions);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = c;
+                }
+            }
+            return best;
+        }
+        double result = VectorOps.sparseDot(weights, matrix.values, matrix.indices, from, to, positions);
+        if(training) {
+            result = result + bias;
+        }
+
+        if (result < 0) {
+            return -1;
+        } else if (result > 0){
+            return 1;
+        } else {
+            return 0;
+        }
+    }
+
+    // classifies a full-width row starting at offset in values
+    double classifier(double[] values, int offset){
+        if (classWeights != null) {
+            return oneVsRest(values, offset);
+        }
+        double result;
+        if (attributes == null) {
+            result = VectorOps.dot(weights, values, offset, numAttributes - 1);
+        } else {
+            result = VectorOps.dot(weights, values, offset, attributes);
+        }
+        if(training) {
+            result = result + bias;
+        }
+
+        if (result < 0) {
+            return -1;
+        } else if (result > 0){
+            return 1;
+        } else {
+            return 0;
+        }
+    }
+
+    // one-vs-rest prediction: the index of the class whose perceptron scores the row highest,
+    // i.e. one K x d matrix-vector product
+    private double oneVsRest(Instance instance) {
+        int best = 0;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < classWeights.length; c++) {
+            double score = dot(classWeights[c], instance);
+            if (score > bestScore) {
+                bestScore = score;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private int oneVsRest(double[][] classWeights, MatrixView view, int x) {
+        int best = 0;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < classWeights.length; c++) {
+            double score = view.dot(classWeights[c], x);
+            if (score > bestScore) {
+                bestScore = score;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private double oneVsRest(double[] values, int offset) {
+        int best = 0;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < classWeights.length; c++) {
+            double score = attributes == null ? VectorOps.dot(classWeights[c], values, offset, numAttributes - 1)
+                    : VectorOps.dot(classWeights[c], values, offset, attributes);
+            if (score > bestScore) {
+                bestScore = score;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    // an immutable copy of the trained model that can be shared between threads
+    public CompiledModel compile() {
+        if (classWeights != null) {
+            int[][] classAttributes = new int[classWeights.length][];
+            Arrays.fill(classAttributes, attributes);
+            return new CompiledModel(classWeights, classAttributes, null, null, true);
+        }
+        return new CompiledModel(new double[][]{weights}, new int[][]{attributes}, null, null, false);
+    }
+
+    // position in a full-width instance of the i-th weight
+    private int attribute(int i) {
+        return attributes == null ? i : attributes[i];
+    }
+
+    // weights . instance; a SparseInstance is read through its non-zeros only
+    private double dot(double[] weights, Instance instance) {
+        double result = 0;
+        if (instance instanceof SparseInstance) {
+            for (int j = 0; j < instance.numValues(); j++) {
+                int position = position(instance.index(j));
+                if (position >= 0) {
+                    result += weights[position] * instance.valueSparse(j);
+                }
+            }
+            return result;
+        }
+        for (int i = 0; i < numAttributes - 1; i++) {
+            result += weights[i] * instance.value(attribute(i));
+        }
+        return result;
+    }
+
+    // the weight of an attribute of the full instance, -1 for one this perceptron doesn't use
+    // (including the class, which comes after all the features)
+    private int position(int attribute) {
+        if (attributes == null) {
+            return attribute < numAttributes - 1 ? attribute : -1;
+        }
+        return attribute < positions.length ? positions[attribute] : -1;
+    }
+
     //adjust the weights for the perceptron
     public void weights(double[] arrayToChange, double adjustment, Instance instance) {
+        if (instance instanceof SparseInstance) {
+            for (int j = 0; j < instance.numValues(); j++) {
+                int position = position(instance.index(j));
+                if (position >= 0) {
+                    arrayToChange[position] = arrayToChange[position] + (adjustment * instance.valueSparse(j));
+                }
+            }
+            return;
+        }
         for (int xj = 0; xj < numAttributes - 1; xj++) {
-            arrayToChange[xj] = arrayToChange[xj] + (adjustment * instance.value(xj));
+            arrayToChange[xj] = arrayToChange[xj] + (adjustment * instance.value(attribute(xj)));
         }
     }
 
@@ -121,7 +663,7 @@ public class LinearPerceptron extends AbstractClassifier {
 
         // class
         result.enable(Capabilities.Capability.NUMERIC_CLASS);
-        result.enable(Capabilities.Capability.BINARY_CLASS);
+        result.enable(Capabilities.Capability.NOMINAL_CLASS);
 
         return result;
     }
@@ -146,10 +688,36 @@ public class LinearPerceptron extends AbstractClassifier {
         this.bias = bias;
     }
 
+    // trains with the hogwild loop on this many threads when more than 1, see innerBuildHogwild
+    public void setHogwildThreads(int hogwildThreads) {
+        this.hogwildThreads = hogwildThreads;
+    }
+
     public void setStoppingCondition(int stoppingCondition) {
         this.stoppingCondition = stoppingCondition;
     }
 
+    // reports build phases, epochs and prediction times to metrics; null (the default) turns it off
+    public void setMetrics(TrainingMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setMaxEpochs(int maxEpochs) {
+        this.maxEpochs = maxEpochs;
+    }
+
+    public void setPlateauPatience(int plateauPatience) {
+        this.plateauPatience = plateauPatience;
+    }
+
+    public void setValidationPatience(int validationPatience) {
+        this.validationPatience = validationPatience;
+    }
+
+    public void setValidationProportion(double validationProportion) {
+        this.validationProportion = validationProportion;
+    }
+
     public double getLearningRate() {
         return learningRate;
     }
@@ -158,6 +726,14 @@ public class LinearPerceptron extends AbstractClassifier {
         return weights;
     }
 
+    public double[][] getClassWeights() {
+        return classWeights;
+    }
+
+    public int[] getAttributes() {
+        return attributes;
+    }
+
     public Instances getInstances() {
         return instances;
     }
@@ -170,7 +746,36 @@ public class LinearPerceptron extends AbstractClassifier {
         return bias;
     }
 
+    public int getHogwildThreads() {
+        return hogwildThreads;
+    }
+
     public int getStoppingCondition() {
         return stoppingCondition;
     }
+
+    public TrainingMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getMaxEpochs() {
+        return maxEpochs;
+    }
+
+    public int getPlateauPatience() {
+        return plateauPatience;
+    }
+
+    public int getValidationPatience() {
+        return validationPatience;
+    }
+
+    public double getValidationProportion() {
+        return validationProportion;
+    }
+
+    // mistakes, time and validation error of each epoch of the last build
+    public List<EpochMonitor.EpochStatistics> getEpochStatistics() {
+        return epochStatistics;
+    }
 }
@@ -1,74 +1,206 @@
+import weka.core.Capabilities;
 import weka.core.Instances;
 import weka.core.Instance;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Random;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 public class LinearPerceptronEnsemble {
 
+    // the name this classifier reports to its metrics hook under
+    static final String NAME = "LinearPerceptronEnsemble";
+
     int ensembleSize = 50;
+    int numThreads = Runtime.getRuntime().availableProcessors();
     double attributeProportion = 0.5;
-    float totalVotes = 0;
+    // passed on to every member, see LinearPerceptron.setMaxEpochs
+    int maxEpochs = 1000;
+    // where timings and epochs are reported, null for nowhere; the members' epochs are reported
+    // as the ensemble's
+    TrainingMetrics metrics = null;
+
+    long seed = 0;
+    boolean seedSet = false;
+    // train every member on a bootstrap sample of the rows (drawn with replacement) rather than
+    // all of them, and estimate the error from the rows each member left out
+    boolean bootstrap = false;
+    // share of the rows the out-of-bag vote gets wrong, over the rows at least one member left
+    // out; NaN unless the last build bootstrapped
+    double outOfBagError = Double.NaN;
+    int outOfBagRows = 0;
 
     LinearPerceptron[] linearPerceptrons = new LinearPerceptron[ensembleSize];
     int[][] attributesRemoved;
+    Instances header;
+    double[] classValues;
     Classification[] classifications = new Classification[]{};
+    // every member's weights in one matrix over the full width, which all the scoring goes through
+    FusedEnsemble fused;
 
     public void buildClassifier(Instances instances, double attributeProportion) throws Exception {
         this.attributeProportion = attributeProportion;
 
-        for (int i = 0; i < ensembleSize; i++) {
-            linearPerceptrons[i] = new LinearPerceptron();
-            linearPerceptrons[i].setInstances(new Instances(instances));
-            Collections.shuffle(linearPerceptrons[i].getInstances());
+        // members vote -1 or 1, so the ensemble itself is still limited to two classes
+        Capabilities capabilities = new LinearPerceptron().getCapabilities();
+        capabilities.disable(Capabilities.Capability.NOMINAL_CLASS);
+        capabilities.enable(Capabilities.Capability.BINARY_CLASS);
+        capabilities.testWithFail(instances);
+
+        // one packed copy of the data is shared read-only by every member; each member only
+        // holds the indices of the attributes it uses
+        long start = metrics == null ? 0 : System.nanoTime();
+        FeatureMatrix matrix = new FeatureMatrix(instances);
+        header = new Instances(instances, 0);
+        if (metrics != null) {
+            long now = System.nanoTime();
+            metrics.phase(NAME, TrainingMetrics.Phase.LOAD, now - start);
+            start = now;
         }
 
         int y = (int) ((instances.numAttributes() - 1) * attributeProportion); //the number of attributes in each split
         attributesRemoved = new int[ensembleSize][y];
-        int[] toMove = new int[y];
 
+        // parse the class values once, so classifying doesn't have to
+        classValues = new double[header.classAttribute().numValues()];
+        for (int i = 0; i < classValues.length; i++) {
+            classValues[i] = Double.parseDouble(header.classAttribute().value(i));
+        }
+
+        // split every member's random stream off up front on this thread, so the ensemble built
+        // from a given seed is the same however many threads end up training it
+        SplittableRandom seeds = seedSet ? new SplittableRandom(seed) : new SplittableRandom();
+        SplittableRandom[] memberRandoms = new SplittableRandom[ensembleSize];
         for (int c = 0; c < ensembleSize; c++) {
+            memberRandoms[c] = seeds.split();
+        }
+        // with bootstrap, the -1, 0 and 1 votes on each row from the members that left it out
+        AtomicIntegerArray outOfBagVotes = bootstrap ? new AtomicIntegerArray(3 * matrix.numRows) : null;
 
-            int[] available = new int[instances.numAttributes() - 1];
-            for (int i = 0; i < instances.numAttributes() - 1;i++) {
-                available[i] = i;
+        // members are independent, so each one is sampled, reduced, trained and (with bootstrap)
+        // scored on the rows it left out as its own task
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, ensembleSize)));
+        try {
+            List<Future<?>> members = new ArrayList<>();
+            for (int c = 0; c < ensembleSize; c++) {
+                final int member = c;
+                members.add(executor.submit(() -> {
+                    buildMember(member, matrix, y, memberRandoms[member], outOfBagVotes);
+                    return null;
+                }));
+            }
+            for (Future<?> member : members) {
+                member.get();
             }
+        } finally {
+            executor.shutdown();
+        }
+        if (metrics != null) {
+            metrics.phase(NAME, TrainingMetrics.Phase.TRAIN, System.nanoTime() - start);
+        }
 
-            for (int i = 0; i < y; i++) {
-                Random rand = new Random(); //instance of random class
-                int random = rand.nextInt(available.length);
-                toMove[i] = available[random];
+        double[][] memberWeights = new double[ensembleSize][];
+        int[][] memberAttributes = new int[ensembleSize][];
+        for (int c = 0; c < ensembleSize; c++) {
+            memberWeights[c] = linearPerceptrons[c].getWeights();
+            memberAttributes[c] = linearPerceptrons[c].getAttributes();
+        }
+        fused = new FusedEnsemble(memberWeights, memberAttributes, matrix.numFeatures);
 
-                int[] temp = new int[available.length-1];
-                for (int j = 0; j < available.length-1;j++) {
-                    if (available[j]!=available[random]) {
-                        temp[j]= available[j];
-                    }
-                }
-                available = new int[temp.length];
-                System.arraycopy(temp, 0, available, 0, temp.length);
-            }
+        outOfBagError = Double.NaN;
+        outOfBagRows = 0;
+        if (bootstrap) {
+            outOfBagError(matrix, outOfBagVotes);
+        }
+
+        // DistributionForInstance calls classifyInstance and returns the classification object type
+        Instance instance = instances.get(0);
+        classifications = distributionForInstance(instance);
+
+    }
 
-            //delete the unwanted attributes from each set of instances in the Ensemble
-            Arrays.sort(toMove);
-            for (int k = toMove.length-1; k > -1; k--) {
-                linearPerceptrons[c].getInstances().deleteAttributeAt(toMove[k]);
+    private void buildMember(int c, FeatureMatrix matrix, int y, SplittableRandom rand,
+                             AtomicIntegerArray outOfBagVotes) throws Exception {
+        // visit the rows in a random order, in place of shuffling a copy of the instances; a
+        // bootstrap sample draws as many rows with replacement, already in a random order
+        int[] rows;
+        if (bootstrap) {
+            rows = new int[matrix.numRows];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = rand.nextInt(matrix.numRows);
             }
+        } else {
+            rows = MatrixView.shuffledRows(matrix.numRows, rand);
+        }
 
-            //Save the deleted attributes to recreate later.
-            System.arraycopy(toMove, 0, attributesRemoved[c], 0, y);
+        // pick y distinct attributes to remove (partial Fisher-Yates over the attribute indices)
+        int[] available = new int[matrix.numFeatures];
+        for (int i = 0; i < available.length; i++) {
+            available[i] = i;
+        }
+        int[] toMove = new int[y];
+        for (int i = 0; i < y; i++) {
+            int random = i + rand.nextInt(available.length - i);
+            toMove[i] = available[random];
+            available[random] = available[i];
+            available[i] = toMove[i];
         }
 
-        //Build a classifier for each Instances object (each instances with the attributes used
-        for (int i=0; i<ensembleSize; i++){
-            linearPerceptrons[i].buildClassifier(linearPerceptrons[i].getInstances());
+        //the member keeps the remaining attributes, in their original order
+        int[] kept = Arrays.copyOfRange(available, y, available.length);
+        Arrays.sort(kept);
+        Arrays.sort(toMove);
+
+        //Save the deleted attributes to recreate later.
+        System.arraycopy(toMove, 0, attributesRemoved[c], 0, y);
+
+        LinearPerceptron perceptron = new LinearPerceptron();
+        perceptron.setMaxEpochs(maxEpochs);
+        perceptron.buildClassifier(new MatrixView(matrix, rows, kept));
+        linearPerceptrons[c] = perceptron;
+        if (metrics != null) {
+            for (EpochMonitor.EpochStatistics epoch : perceptron.getEpochStatistics()) {
+                metrics.epoch(NAME, epoch);
+            }
         }
 
-        // DistributionForInstance calls classifyInstance and returns the classification object type
-        Instance instance = linearPerceptrons[0].getInstance(0);
-        classifications = distributionForInstance(instance);
+        if (outOfBagVotes != null) {
+            boolean[] inBag = new boolean[matrix.numRows];
+            for (int row : rows) {
+                inBag[row] = true;
+            }
+            for (int row = 0; row < matrix.numRows; row++) {
+                if (!inBag[row]) {
+                    double vote = perceptron.classifier(matrix, row);
+                    outOfBagVotes.incrementAndGet(3 * row + (vote < 0 ? 0 : vote > 0 ? 2 : 1));
+                }
+            }
+        }
+    }
 
+    // the out-of-bag estimate: each row is labelled by the vote of only the members that didn't
+    // train on it, and compared with its class
+    private void outOfBagError(FeatureMatrix matrix, AtomicIntegerArray outOfBagVotes) {
+        int[] votes = new int[3];
+        int wrong = 0;
+        for (int row = 0; row < matrix.numRows; row++) {
+            for (int v = 0; v < 3; v++) {
+                votes[v] = outOfBagVotes.get(3 * row + v);
+            }
+            if (votes[0] + votes[1] + votes[2] == 0) {
+                continue;
+            }
+            outOfBagRows++;
+            if (CompiledModel.winner(classValues, votes) != classValues[matrix.classes[row]]) {
+                wrong++;
+            }
+        }
+        outOfBagError = outOfBagRows == 0 ? Double.NaN : (double) wrong / outOfBagRows;
     }
 
     class Classification {
@@ -77,42 +209,173 @@ public class LinearPerceptronEnsemble {
         double voteProportion = 0.0;
     }
 
+    // Only reads state fixed at build time, so a trained ensemble can classify from many threads
+    // at once, and allocates nothing.
     public double classifyInstance(Instance instance){
-        classifications = new Classification[linearPerceptrons[0].getInstance(0).classAttribute().numValues()];
-
-        for(int i=0; i < classifications.length; i++){
-            classifications[i] = new Classification();
-            classifications[i].classification = Double.parseDouble(linearPerceptrons[0].getInstance(0).classAttribute(). value(i));
+        if (metrics == null) {
+            return classifier(instance);
         }
+        long start = System.nanoTime();
+        double label = classifier(instance);
+        metrics.prediction(NAME, 1, System.nanoTime() - start);
+        return label;
+    }
 
-        for(int i =0; i<ensembleSize;i++) {
-            double currentClassification = (linearPerceptrons[i].classifyInstance(instance));
-            for (int j=0; j< classifications.length; j++) {
-               if (classifications[j].classification == currentClassification){
-                   classifications[j].count++;
-                   totalVotes ++;
-               }
-           }
+    // members only ever answer -1, 0 or 1, so three counters hold the whole vote; nothing is
+    // allocated, the members' scores are read straight off the instance (FusedEnsemble.score)
+    private double classifier(Instance instance){
+        int negative = 0;
+        int zero = 0;
+        int positive = 0;
+        for (int m = 0; m < ensembleSize; m++) {
+            double score = fused.score(m, instance);
+            if (score < 0) {
+                negative++;
+            } else if (score > 0) {
+                positive++;
+            } else {
+                zero++;
+            }
         }
+        return CompiledModel.winner(classValues, negative, zero, positive);
+    }
 
-        Classification classification = new Classification();
-        for (int j=0; j < classifications.length; j++) {
-            if(classifications[j].count > classification.count){
-                classification = classifications[j];
-            }
+    // classifies every instance in one call; see classifyBatch(FeatureMatrix)
+    public double[] classifyBatch(Instances instances) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        double[] labels = classifyBatch(new FeatureMatrix(instances));
+        if (metrics != null) {
+            metrics.prediction(NAME, labels.length, System.nanoTime() - start);
         }
-        return classification.classification;
+        return labels;
     }
 
+    // classifies rows of full-width feature values (no class column); each row is scored where it
+    // is, as CompiledModel.classifyBatch does, rather than copied into a FeatureMatrix first
+    public double[] classifyBatch(double[][] rows) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        double[] labels = new double[rows.length];
+        double[] scores = new double[ensembleSize];
+        int[] votes = new int[3];
+        for (int row = 0; row < rows.length; row++) {
+            fused.scores(rows[row], 0, scores);
+            labels[row] = CompiledModel.winner(classValues, CompiledModel.countVotes(scores, votes));
+        }
+        if (metrics != null) {
+            metrics.prediction(NAME, labels.length, System.nanoTime() - start);
+        }
+        return labels;
+    }
 
+    // Every row is scored by all the members at once through the fused matrix, which is small
+    // enough to stay in cache across the rows. Sparse rows are scored from their non-zeros alone.
+    private double[] classifyBatch(FeatureMatrix matrix) {
+        double[] labels = new double[matrix.numRows];
+        double[] scores = new double[ensembleSize];
+        int[] votes = new int[3];
+        double[] scratch = matrix.isSparse() ? new double[fused.numFeatures] : null;
+        for (int row = 0; row < matrix.numRows; row++) {
+            if (matrix.isSparse()) {
+                fused.sparseScores(matrix.values, matrix.indices, matrix.rowStart[row], matrix.rowStart[row + 1], scores, scratch);
+            } else {
+                fused.scores(matrix.values, matrix.offset(row), scores);
+            }
+            labels[row] = CompiledModel.winner(classValues, CompiledModel.countVotes(scores, votes));
+        }
+        return labels;
+    }
 
     public Classification[] distributionForInstance(Instance instance){
-        classifyInstance(instance);
-        for (Classification classification : classifications) {
+        int negative = 0;
+        int zero = 0;
+        int positive = 0;
+        for (int m = 0; m < ensembleSize; m++) {
+            double score = fused.score(m, instance);
+            if (score < 0) {
+                negative++;
+            } else if (score > 0) {
+                positive++;
+            } else {
+                zero++;
+            }
+        }
+
+        Classification[] distribution = new Classification[classValues.length];
+        int totalVotes = 0;
+        for (int j = 0; j < classValues.length; j++) {
+            distribution[j] = new Classification();
+            distribution[j].classification = classValues[j];
+            distribution[j].count = CompiledModel.votesFor(classValues[j], negative, zero, positive);
+            totalVotes += distribution[j].count;
+        }
+        for (Classification classification : distribution) {
             if(classification.count != 0) {
-                classification.voteProportion = totalVotes / classification.count;
+                classification.voteProportion = (double) classification.count / totalVotes;
             }
         }
-        return classifications;
+        return distribution;
+    }
+
+    // an immutable copy of the trained ensemble that can be shared between threads
+    public CompiledModel compile() {
+        double[][] weights = new double[ensembleSize][];
+        int[][] attributes = new int[ensembleSize][];
+        for (int i = 0; i < ensembleSize; i++) {
+            weights[i] = linearPerceptrons[i].getWeights();
+            attributes[i] = linearPerceptrons[i].getAttributes();
+        }
+        return new CompiledModel(weights, attributes, null, classValues, false);
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+        seedSet = true;
+    }
+
+    public void setMaxEpochs(int maxEpochs) {
+        this.maxEpochs = maxEpochs;
+    }
+
+    public void setBootstrap(boolean bootstrap) {
+        this.bootstrap = bootstrap;
+    }
+
+    // reports build phases, epochs and prediction times to metrics; null (the default) turns it off
+    public void setMetrics(TrainingMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getMaxEpochs() {
+        return maxEpochs;
+    }
+
+    public boolean getBootstrap() {
+        return bootstrap;
+    }
+
+    // see outOfBagError
+    public double getOutOfBagError() {
+        return outOfBagError;
+    }
+
+    // rows that at least one member left out of its bootstrap sample
+    public int getOutOfBagRows() {
+        return outOfBagRows;
+    }
+
+    public TrainingMetrics getMetrics() {
+        return metrics;
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,4 @@
 
-import weka.core.Instance;
 import weka.core.Instances;
 
 import java.io.FileReader;
@@ -25,8 +24,8 @@ public class Main {
         System.out.println("Linear Perceptron Weights");
         System.out.println(Arrays.toString(linearPerceptron.getWeights()));
         System.out.println("Linear Perceptron Test Data Classifications");
-        for (Instance instance : test) {
-            System.out.println(linearPerceptron.classifyInstance(instance));
+        for (double classification : linearPerceptron.classifyBatch(test)) {
+            System.out.println(classification);
         }
 
         EnhancedLinearPerceptron enhanced = new EnhancedLinearPerceptron();
@@ -36,8 +35,8 @@ public class Main {
         System.out.println("\nEnhanced Linear Perceptron Weights");
         System.out.println(Arrays.toString(enhanced.getWeights()));
         System.out.println("Enhanced Linear Perceptron Test Data Classifications");
-        for (Instance instance : test) {
-            System.out.println(enhanced.classifyInstance(instance));
+        for (double classification : enhanced.classifyBatch(test)) {
+            System.out.println(classification);
         }
 
         String ensembleArff = "training-data/part2.arff";
@@ -53,8 +52,8 @@ public class Main {
         }
 
         System.out.println("Linear Perceptron Ensemble Test Data Classifications");
-        for (Instance instance : test) {
-            System.out.println(ensemble.classifyInstance(instance));
+        for (double classification : ensemble.classifyBatch(ensembleinstances)) {
+            System.out.println(classification);
         }
 
     }
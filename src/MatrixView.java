@@ -0,0 +1,139 @@
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+// A read-only window onto a shared FeatureMatrix: an ordering (or subset) of its rows and a
+// subset of its attributes, both held as index arrays so no feature values are copied.
+// A null rows or attributes array means "all of them, in their original order".
+class MatrixView {
+
+    final FeatureMatrix matrix;
+    final int[] rows;
+    final int[] attributes;
+
+    final int numRows;
+    final int numFeatures;
+    // for a sparse matrix with an attribute subset: the position in attributes of each of the
+    // matrix's attributes, -1 for one left out (see positions); null otherwise
+    final int[] positions;
+
+    MatrixView(FeatureMatrix matrix) {
+        this(matrix, null, null);
+    }
+
+    MatrixView(FeatureMatrix matrix, int[] rows, int[] attributes) {
+        this.matrix = matrix;
+        this.rows = rows;
+        this.attributes = attributes;
+        this.numRows = rows == null ? matrix.numRows : rows.length;
+        this.numFeatures = attributes == null ? matrix.numFeatures : attributes.length;
+        this.positions = matrix.isSparse() && attributes != null ? positions(attributes, matrix.numFeatures) : null;
+    }
+
+    // the inverse of an attribute subset: for each of width attributes, its index in attributes or -1
+    static int[] positions(int[] attributes, int width) {
+        int[] positions = new int[width];
+        Arrays.fill(positions, -1);
+        for (int i = 0; i < attributes.length; i++) {
+            positions[attributes[i]] = i;
+        }
+        return positions;
+    }
+
+    // the row indices 0 .. numRows-1 in a random order (Fisher-Yates)
+    static int[] shuffledRows(int numRows, RandomGenerator rand) {
+        int[] rows = new int[numRows];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        for (int i = rows.length - 1; i > 0; i--) {
+            int random = rand.nextInt(i + 1);
+            int temp = rows[i];
+            rows[i] = rows[random];
+            rows[random] = temp;
+        }
+        return rows;
+    }
+
+    // Splits off about proportion of this view's rows, evenly spaced, as a validation view.
+    // Returns {train, validation}, with a null validation view when no rows are held out.
+    MatrixView[] holdOut(double proportion) {
+        int numValidation = (int) (numRows * proportion);
+        if (numValidation <= 0) {
+            return new MatrixView[]{this, null};
+        }
+        int[] train = new int[numRows - numValidation];
+        int[] validation = new int[numValidation];
+        int t = 0;
+        int v = 0;
+        for (int x = 0; x < numRows; x++) {
+            // every row the running count of held out rows steps past goes to validation
+            if (v < numValidation && (long) v * numRows / numValidation == x) {
+                validation[v++] = row(x);
+            } else {
+                train[t++] = row(x);
+            }
+        }
+        return new MatrixView[]{new MatrixView(matrix, train, attributes), new MatrixView(matrix, validation, attributes)};
+    }
+
+    // index of the x-th row of this view in the underlying matrix
+    int row(int x) {
+        return rows == null ? x : rows[x];
+    }
+
+    byte target(int x) {
+        return matrix.targets[row(x)];
+    }
+
+    byte classIndex(int x) {
+        return matrix.classes[row(x)];
+    }
+
+    double dot(double[] weights, int x) {
+        if (matrix.isSparse()) {
+            int row = row(x);
+            return VectorOps.sparseDot(weights, matrix.values, matrix.indices, matrix.rowStart[row],
+                    matrix.rowStart[row + 1], positions);
+        }
+        int offset = matrix.offset(row(x));
+        if (attributes == null) {
+            return VectorOps.dot(weights, matrix.values, offset, numFeatures);
+        }
+        return VectorOps.dot(weights, matrix.values, offset, attributes);
+    }
+
+    void axpy(double[] arrayToChange, double adjustment, int x) {
+        if (matrix.isSparse()) {
+            int row = row(x);
+            VectorOps.sparseAxpy(arrayToChange, adjustment, matrix.values, matrix.indices, matrix.rowStart[row],
+                    matrix.rowStart[row + 1], positions);
+            return;
+        }
+        int offset = matrix.offset(row(x));
+        if (attributes == null) {
+            VectorOps.axpy(arrayToChange, adjustment, matrix.values, offset, numFeatures);
+        } else {
+            VectorOps.axpy(arrayToChange, adjustment, matrix.values, offset, attributes);
+        }
+    }
+
+    // dot and axpy on weights shared between threads (see VectorOps.opaqueDot)
+    double opaqueDot(double[] weights, int x) {
+        int row = row(x);
+        if (matrix.isSparse()) {
+            return VectorOps.opaqueSparseDot(weights, matrix.values, matrix.indices, matrix.rowStart[row],
+                    matrix.rowStart[row + 1], positions);
+        }
+        return VectorOps.opaqueDot(weights, matrix.values, matrix.offset(row), attributes, numFeatures);
+    }
+
+    void opaqueAxpy(double[] weights, double adjustment, int x) {
+        int row = row(x);
+        if (matrix.isSparse()) {
+            VectorOps.opaqueSparseAxpy(weights, adjustment, matrix.values, matrix.indices, matrix.rowStart[row],
+                    matrix.rowStart[row + 1], positions);
+        } else {
+            VectorOps.opaqueAxpy(weights, adjustment, matrix.values, matrix.offset(row), attributes, numFeatures);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+// The stock TrainingMetrics hook. It keeps running totals per classifier that can be pulled at
+// any time (get, or toString for all of them), and also commits every report as a JFR event, so
+// a flight recording of a production JVM shows where its training time went:
+//
+//   MetricsRecorder metrics = new MetricsRecorder();
+//   perceptron.setMetrics(metrics);
+//   ...
+//   metrics.get(LinearPerceptron.NAME).predictionLatency().percentile(99)
+//
+// The events (perceptron.Phase, perceptron.Epoch, perceptron.Prediction) are only written while
+// a recording has them enabled, e.g. java -XX:StartFlightRecording:filename=run.jfr.
+public class MetricsRecorder implements TrainingMetrics {
+
+    // the totals of one classifier
+    public static class ClassifierMetrics {
+        private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+        private final LongAdder epochs = new LongAdder();
+        private final LongAdder mistakes = new LongAdder();
+        private final LongAdder epochRows = new LongAdder();
+        private final LongAdder epochNanos = new LongAdder();
+        private final AtomicReference<EpochMonitor.EpochStatistics> lastEpoch = new AtomicReference<>();
+        private final LongAdder predictions = new LongAdder();
+        private final LatencyHistogram predictionLatency = new LatencyHistogram();
+
+        // total time spent in phase over every build
+        public long phaseNanos(Phase phase) {
+            return phaseNanos.get(phase.ordinal());
+        }
+
+        public long epochs() {
+            return epochs.sum();
+        }
+
+        public long mistakes() {
+            return mistakes.sum();
+        }
+
+        public double mistakesPerEpoch() {
+            long epochs = epochs();
+            return epochs == 0 ? 0 : (double) mistakes() / epochs;
+        }
+
+        // training rows visited per second, over every epoch
+        public double rowsPerSecond() {
+            long nanos = epochNanos.sum();
+            return nanos == 0 ? 0 : epochRows.sum() * 1e9 / nanos;
+        }
+
+        // the most recent epoch reported, null before the first
+        public EpochMonitor.EpochStatistics lastEpoch() {
+            return lastEpoch.get();
+        }
+
+        // rows labelled by classifyInstance and classifyBatch
+        public long predictions() {
+            return predictions.sum();
+        }
+
+        // time per labelled row; a batch counts as that many rows of its average time
+        public LatencyHistogram predictionLatency() {
+            return predictionLatency;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder();
+            for (Phase phase : Phase.values()) {
+                out.append(phase.name().toLowerCase()).append(' ').append(phaseNanos(phase) / 1e6).append(" ms, ");
+            }
+            out.append(epochs()).append(" epochs, ").append(mistakesPerEpoch()).append(" mistakes/epoch, ")
+                    .append((long) rowsPerSecond()).append(" rows/s, ").append(predictions()).append(" predictions (")
+                    .append(predictionLatency).append(')');
+            return out.toString();
+        }
+    }
+
+    @Name("perceptron.Phase")
+    @Label("Training Phase")
+    @Category("Perceptron")
+    @StackTrace(false)
+    static class PhaseEvent extends Event {
+        @Label("Classifier")
+        String classifier;
+        @Label("Phase")
+        String phase;
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+
+    @Name("perceptron.Epoch")
+    @Label("Training Epoch")
+    @Category("Perceptron")
+    @StackTrace(false)
+    static class EpochEvent extends Event {
+        @Label("Classifier")
+        String classifier;
+        @Label("Epoch")
+        int epoch;
+        @Label("Mistakes")
+        int mistakes;
+        @Label("Rows")
+        int rows;
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+        @Label("Rows per Second")
+        double rowsPerSecond;
+        @Label("Validation Error")
+        double validationError;
+    }
+
+    @Name("perceptron.Prediction")
+    @Label("Prediction")
+    @Category("Perceptron")
+    @StackTrace(false)
+    static class PredictionEvent extends Event {
+        @Label("Classifier")
+        String classifier;
+        @Label("Rows")
+        int rows;
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+
+    private final Map<String, ClassifierMetrics> classifiers = new ConcurrentHashMap<>();
+
+    @Override
+    public void phase(String classifier, Phase phase, long nanos) {
+        metrics(classifier).phaseNanos.addAndGet(phase.ordinal(), nanos);
+
+        PhaseEvent event = new PhaseEvent();
+        if (event.shouldCommit()) {
+            event.classifier = classifier;
+            event.phase = phase.name();
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void epoch(String classifier, EpochMonitor.EpochStatistics epoch) {
+        ClassifierMetrics metrics = metrics(classifier);
+        metrics.epochs.increment();
+        metrics.mistakes.add(epoch.mistakes);
+        metrics.epochRows.add(epoch.rows);
+        metrics.epochNanos.add(epoch.nanos);
+        metrics.lastEpoch.set(epoch);
+
+        EpochEvent event = new EpochEvent();
+        if (event.shouldCommit()) {
+            event.classifier = classifier;
+            event.epoch = epoch.epoch;
+            event.mistakes = epoch.mistakes;
+            event.rows = epoch.rows;
+            event.nanos = epoch.nanos;
+            event.rowsPerSecond = epoch.rowsPerSecond();
+            event.validationError = epoch.validationError;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void prediction(String classifier, int rows, long nanos) {
+        if (rows == 0) {
+            return;
+        }
+        ClassifierMetrics metrics = metrics(classifier);
+        metrics.predictions.add(rows);
+        metrics.predictionLatency.record(nanos / rows, rows);
+
+        PredictionEvent event = new PredictionEvent();
+        if (event.shouldCommit()) {
+            event.classifier = classifier;
+            event.rows = rows;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    private ClassifierMetrics metrics(String classifier) {
+        return classifiers.computeIfAbsent(classifier, name -> new ClassifierMetrics());
+    }
+
+    // the totals reported by classifier (e.g. LinearPerceptron.NAME), null if it hasn't reported
+    public ClassifierMetrics get(String classifier) {
+        return classifiers.get(classifier);
+    }
+
+    public Set<String> classifiers() {
+        return new TreeSet<>(classifiers.keySet());
+    }
+
+    // forgets everything recorded so far
+    public void reset() {
+        classifiers.clear();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        for (String classifier : classifiers()) {
+            out.append(classifier).append(": ").append(classifiers.get(classifier)).append('\n');
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,142 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// A compact, versioned binary form of a CompiledModel, so a scoring process can start from a
+// trained model without the training data or any Java serialization. It holds only what
+// prediction needs: the weights, the attribute subset of each ensemble member, the intercepts
+// (EnhancedLinearPerceptron's standardisation, folded into the model by compile) and the class
+// table, so its size depends on the number of attributes and members, never on the rows trained on.
+//
+// Layout, all little-endian:
+//   int magic, int version, int flags (1 one-vs-rest, 2 intercepts, 4 class values),
+//   int numMembers, int numClassValues
+//   per member: int numAttributes (-1 for all of them, in order), that many attribute ints,
+//               int numWeights, that many weight doubles
+//   numMembers intercept doubles, if flagged
+//   numClassValues class value doubles, if flagged
+//
+// Save a trained model with ModelFile.write(classifier.compile(), path) and read it back with
+// ModelFile.load, which maps the file and bulk-copies it straight into the model's arrays.
+//   java ModelFile <model file>
+// loads one and prints how long that took.
+public class ModelFile {
+
+    static final int MAGIC = 0x50435044;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 5 * Integer.BYTES;
+
+    private static final int ONE_VS_REST = 1;
+    private static final int INTERCEPTS = 2;
+    private static final int CLASS_VALUES = 4;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.out.println("Usage: java ModelFile <model file>");
+            return;
+        }
+        long start = System.nanoTime();
+        CompiledModel model = load(args[0]);
+        System.out.println("Loaded " + model.numMembers() + " member(s) in " + (System.nanoTime() - start) / 1e6 + " ms");
+    }
+
+    public static void write(CompiledModel model, String path) throws IOException {
+        int flags = (model.oneVsRest ? ONE_VS_REST : 0) | (model.intercepts != null ? INTERCEPTS : 0)
+                | (model.classValues != null ? CLASS_VALUES : 0);
+        int numMembers = model.weights.length;
+        int numClassValues = model.classValues == null ? 0 : model.classValues.length;
+
+        long size = HEADER_BYTES;
+        for (int m = 0; m < numMembers; m++) {
+            int[] attributes = model.attributes[m];
+            size += 2 * Integer.BYTES + (attributes == null ? 0 : (long) attributes.length * Integer.BYTES)
+                    + (long) model.weights[m].length * Double.BYTES;
+        }
+        size += (model.intercepts == null ? 0 : (long) numMembers * Double.BYTES) + (long) numClassValues * Double.BYTES;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = map(channel, FileChannel.MapMode.READ_WRITE, size);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(flags).putInt(numMembers).putInt(numClassValues);
+            for (int m = 0; m < numMembers; m++) {
+                int[] attributes = model.attributes[m];
+                if (attributes == null) {
+                    buffer.putInt(-1);
+                } else {
+                    buffer.putInt(attributes.length);
+                    buffer.asIntBuffer().put(attributes);
+                    buffer.position(buffer.position() + attributes.length * Integer.BYTES);
+                }
+                putDoubles(buffer, model.weights[m]);
+            }
+            if (model.intercepts != null) {
+                buffer.asDoubleBuffer().put(model.intercepts);
+                buffer.position(buffer.position() + numMembers * Double.BYTES);
+            }
+            if (model.classValues != null) {
+                buffer.asDoubleBuffer().put(model.classValues);
+            }
+        }
+    }
+
+    public static CompiledModel load(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("Not a model file: " + path);
+            }
+            MappedByteBuffer buffer = map(channel, FileChannel.MapMode.READ_ONLY, channel.size());
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a model file: " + path);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported model file version " + version + ": " + path);
+            }
+            int flags = buffer.getInt();
+            int numMembers = buffer.getInt();
+            int numClassValues = buffer.getInt();
+
+            double[][] weights = new double[numMembers][];
+            int[][] attributes = new int[numMembers][];
+            for (int m = 0; m < numMembers; m++) {
+                int numAttributes = buffer.getInt();
+                if (numAttributes >= 0) {
+                    attributes[m] = new int[numAttributes];
+                    buffer.asIntBuffer().get(attributes[m]);
+                    buffer.position(buffer.position() + numAttributes * Integer.BYTES);
+                }
+                weights[m] = getDoubles(buffer, buffer.getInt());
+            }
+            double[] intercepts = (flags & INTERCEPTS) != 0 ? getDoubles(buffer, numMembers) : null;
+            double[] classValues = (flags & CLASS_VALUES) != 0 ? getDoubles(buffer, numClassValues) : null;
+
+            return new CompiledModel(weights, attributes, intercepts, classValues, (flags & ONE_VS_REST) != 0);
+        } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+            throw new IOException("Truncated model file: " + path, e);
+        }
+    }
+
+    // a count followed by the doubles
+    private static void putDoubles(MappedByteBuffer buffer, double[] values) {
+        buffer.putInt(values.length);
+        buffer.asDoubleBuffer().put(values);
+        buffer.position(buffer.position() + values.length * Double.BYTES);
+    }
+
+    private static double[] getDoubles(MappedByteBuffer buffer, int length) {
+        double[] values = new double[length];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + length * Double.BYTES);
+        return values;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long size) throws IOException {
+        MappedByteBuffer buffer = channel.map(mode, 0, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+}
@@ -0,0 +1,279 @@
+import java.util.Arrays;
+
+// A CompiledModel with its weights quantized to 16 or 8 bit integers, or to single bits, for
+// scoring that stays in cache. An ensemble only needs the sign of each member's score, and a
+// sign doesn't change when the weights or the row are scaled by a positive number, so:
+//   INT16, INT8  each member's weights are scaled so the largest is the largest the type holds
+//                and rounded; each row is scaled the same way, once, and shared by every member,
+//                whose score is then an integer dot product
+//   BINARY       only the signs are kept, one bit per weight and per row value, and a score is
+//                (matching signs - differing signs), counted with popcount; sign(0) counts as 0
+// The members are scattered to full width, so a row is quantized once and every member reads it
+// in place, and they are stored one after another in a single array. At INT16 and INT8 each
+// member is padded to a whole number of 64-byte cache lines (of the array's data; the JVM decides
+// where the array starts); at BINARY it only takes whole long words, ceil(width / 64) of them in
+// each of the sign and mask arrays, so a member of 64 attributes or fewer is 16 bytes and several
+// share a line. For wall-following's 50 members of 24 attributes that is 3.2KB at INT8 and 800
+// bytes at BINARY, against 4.8KB of doubles plus 50 index arrays at full precision.
+//
+// Rounding can flip a vote whose score was close to 0, so predictions can differ from the full
+// precision model; agreement measures how often they don't. Intercepts (the folded
+// standardisation of EnhancedLinearPerceptron) are added in full precision, scaled back to the
+// units of the quantized score. Like CompiledModel it is immutable and safe to share.
+public final class QuantizedModel {
+
+    public enum Precision {
+        INT16,
+        INT8,
+        BINARY
+    }
+
+    private static final int CACHE_LINE_BYTES = 64;
+
+    private final Precision precision;
+    private final int numMembers;
+    // full width of the rows the members read
+    private final int width;
+    // elements (or for BINARY, long words) from one member to the next
+    private final int stride;
+
+    private final short[] weights16;
+    private final byte[] weights8;
+    // BINARY: the sign bit of each weight (1 for negative), and which weights are non-zero
+    private final long[] signs;
+    private final long[] masks;
+
+    // what each member's quantized score is divided by to give back its full precision score
+    // (for BINARY, multiplied by: the mean absolute weight of the member)
+    private final double[] scales;
+    private final double[] intercepts;
+    private final double[] classValues;
+    private final boolean oneVsRest;
+
+    public QuantizedModel(CompiledModel model, Precision precision) {
+        this.precision = precision;
+        this.numMembers = model.weights.length;
+        this.intercepts = model.intercepts == null ? null : model.intercepts.clone();
+        this.classValues = model.classValues == null ? null : model.classValues.clone();
+        this.oneVsRest = model.oneVsRest;
+
+        int width = 0;
+        for (int m = 0; m < numMembers; m++) {
+            int[] a = model.attributes[m];
+            for (int i = 0; i < model.weights[m].length; i++) {
+                width = Math.max(width, (a == null ? i : a[i]) + 1);
+            }
+        }
+        this.width = width;
+
+        // every member's weights at full width, 0 for the attributes it doesn't use
+        double[][] full = new double[numMembers][width];
+        for (int m = 0; m < numMembers; m++) {
+            int[] a = model.attributes[m];
+            for (int i = 0; i < model.weights[m].length; i++) {
+                full[m][a == null ? i : a[i]] = model.weights[m][i];
+            }
+        }
+
+        scales = new double[numMembers];
+        if (precision == Precision.BINARY) {
+            stride = (width + Long.SIZE - 1) / Long.SIZE;
+            signs = new long[numMembers * stride];
+            masks = new long[numMembers * stride];
+            weights16 = null;
+            weights8 = null;
+            for (int m = 0; m < numMembers; m++) {
+                double sum = 0;
+                int count = 0;
+                for (int i = 0; i < width; i++) {
+                    double w = full[m][i];
+                    if (w != 0) {
+                        masks[m * stride + i / Long.SIZE] |= 1L << (i % Long.SIZE);
+                        sum += Math.abs(w);
+                        count++;
+                    }
+                    if (w < 0) {
+                        signs[m * stride + i / Long.SIZE] |= 1L << (i % Long.SIZE);
+                    }
+                }
+                scales[m] = count == 0 ? 0 : sum / count;
+            }
+        } else {
+            int bytes = precision == Precision.INT16 ? Short.BYTES : Byte.BYTES;
+            int perLine = CACHE_LINE_BYTES / bytes;
+            stride = (width + perLine - 1) / perLine * perLine;
+            double limit = limit(precision);
+            signs = null;
+            masks = null;
+            weights16 = precision == Precision.INT16 ? new short[numMembers * stride] : null;
+            weights8 = precision == Precision.INT8 ? new byte[numMembers * stride] : null;
+            for (int m = 0; m < numMembers; m++) {
+                double largest = 0;
+                for (int i = 0; i < width; i++) {
+                    largest = Math.max(largest, Math.abs(full[m][i]));
+                }
+                scales[m] = largest == 0 ? 1 : limit / largest;
+                for (int i = 0; i < width; i++) {
+                    long q = Math.round(full[m][i] * scales[m]);
+                    if (weights16 != null) {
+                        weights16[m * stride + i] = (short) q;
+                    } else {
+                        weights8[m * stride + i] = (byte) q;
+                    }
+                }
+            }
+        }
+    }
+
+    private static double limit(Precision precision) {
+        return precision == Precision.INT16 ? Short.MAX_VALUE : Byte.MAX_VALUE;
+    }
+
+    // features holds the full-width attribute values; a trailing class value is ignored
+    public double classify(double[] features) {
+        return classify(features, new double[numMembers], new int[3], scratch());
+    }
+
+    public double[] classifyBatch(double[][] rows) {
+        double[] labels = new double[rows.length];
+        double[] scores = new double[numMembers];
+        int[] votes = new int[3];
+        Object row = scratch();
+        for (int r = 0; r < rows.length; r++) {
+            labels[r] = classify(rows[r], scores, votes, row);
+        }
+        return labels;
+    }
+
+    // a row buffer of the right type for the precision
+    private Object scratch() {
+        switch (precision) {
+            case INT16:
+                return new short[width];
+            case INT8:
+                return new byte[width];
+            default:
+                return new long[2 * stride];
+        }
+    }
+
+    private double classify(double[] features, double[] scores, int[] votes, Object row) {
+        score(features, scores, row);
+        if (oneVsRest) {
+            int best = 0;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int c = 0; c < numMembers; c++) {
+                if (scores[c] > bestScore) {
+                    bestScore = scores[c];
+                    best = c;
+                }
+            }
+            return best;
+        }
+        if (classValues == null) {
+            return Math.signum(scores[0]);
+        }
+        return CompiledModel.winner(classValues, CompiledModel.countVotes(scores, votes));
+    }
+
+    // quantizes the row once, then fills in every member's score, in full precision units
+    private void score(double[] features, double[] scores, Object row) {
+        if (precision == Precision.BINARY) {
+            long[] bits = (long[]) row;
+            Arrays.fill(bits, 0);
+            double sum = 0;
+            int count = 0;
+            for (int i = 0; i < width; i++) {
+                double x = features[i];
+                if (x != 0) {
+                    bits[stride + i / Long.SIZE] |= 1L << (i % Long.SIZE);
+                    sum += Math.abs(x);
+                    count++;
+                }
+                if (x < 0) {
+                    bits[i / Long.SIZE] |= 1L << (i % Long.SIZE);
+                }
+            }
+            double rowScale = count == 0 ? 0 : sum / count;
+            for (int m = 0; m < numMembers; m++) {
+                int matching = 0;
+                int used = 0;
+                for (int word = 0; word < stride; word++) {
+                    long mask = masks[m * stride + word] & bits[stride + word];
+                    used += Long.bitCount(mask);
+                    matching += Long.bitCount(~(signs[m * stride + word] ^ bits[word]) & mask);
+                }
+                scores[m] = (2 * matching - used) * scales[m] * rowScale + (intercepts == null ? 0 : intercepts[m]);
+            }
+            return;
+        }
+
+        double largest = 0;
+        for (int i = 0; i < width; i++) {
+            largest = Math.max(largest, Math.abs(features[i]));
+        }
+        double rowScale = largest == 0 ? 1 : limit(precision) / largest;
+
+        if (precision == Precision.INT16) {
+            short[] x = (short[]) row;
+            for (int i = 0; i < width; i++) {
+                x[i] = (short) Math.round(features[i] * rowScale);
+            }
+            for (int m = 0; m < numMembers; m++) {
+                int base = m * stride;
+                long sum = 0;
+                for (int i = 0; i < width; i++) {
+                    sum += weights16[base + i] * x[i];
+                }
+                scores[m] = sum / (scales[m] * rowScale) + (intercepts == null ? 0 : intercepts[m]);
+            }
+        } else {
+            byte[] x = (byte[]) row;
+            for (int i = 0; i < width; i++) {
+                x[i] = (byte) Math.round(features[i] * rowScale);
+            }
+            for (int m = 0; m < numMembers; m++) {
+                int base = m * stride;
+                // at most 127 * 127 per attribute, so an int holds rows of over 100000 attributes
+                int sum = 0;
+                for (int i = 0; i < width; i++) {
+                    sum += weights8[base + i] * x[i];
+                }
+                scores[m] = sum / (scales[m] * rowScale) + (intercepts == null ? 0 : intercepts[m]);
+            }
+        }
+    }
+
+    // share of the rows this model labels the same as model
+    public double agreement(CompiledModel model, double[][] rows) {
+        double[] quantized = classifyBatch(rows);
+        double[] full = model.classifyBatch(rows);
+        int same = 0;
+        for (int r = 0; r < rows.length; r++) {
+            if (quantized[r] == full[r]) {
+                same++;
+            }
+        }
+        return rows.length == 0 ? 1 : (double) same / rows.length;
+    }
+
+    // bytes taken by the quantized weights of all the members
+    public long weightBytes() {
+        switch (precision) {
+            case INT16:
+                return (long) weights16.length * Short.BYTES;
+            case INT8:
+                return weights8.length;
+            default:
+                return (long) (signs.length + masks.length) * Long.BYTES;
+        }
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    public int numMembers() {
+        return numMembers;
+    }
+}
@@ -0,0 +1,107 @@
+import weka.core.Instance;
+import weka.core.SparseInstance;
+
+// Per-attribute mean and variance kept up to date one row at a time (Welford's method), so the
+// statistics need a single pass over the data and can keep following a stream of new rows
+// without holding on to any of them.
+//
+// Sparse rows only update the attributes they have a value for. Each attribute counts the rows
+// it has seen a value in, and the zeros it skipped are merged in when the statistics are read
+// (Chan et al.'s pairwise update, with the zeros as a group of mean 0 and no spread), so a sparse
+// row costs O(nnz) and the result is the same as adding the zeros one by one.
+class RunningStatistics {
+
+    private final double[] mean;
+    private final double[] m2;
+    // rows that had a value for each attribute
+    private final long[] counts;
+    private long count;
+
+    RunningStatistics(int numAttributes) {
+        mean = new double[numAttributes];
+        m2 = new double[numAttributes];
+        counts = new long[numAttributes];
+    }
+
+    // adds the first mean.length attribute values of the instance (the class is not included)
+    void add(Instance instance) {
+        if (instance instanceof SparseInstance) {
+            count++;
+            for (int j = 0; j < instance.numValues(); j++) {
+                if (instance.index(j) < mean.length) {
+                    add(instance.index(j), instance.valueSparse(j));
+                }
+            }
+            return;
+        }
+        count++;
+        for (int i = 0; i < mean.length; i++) {
+            add(i, instance.value(i));
+        }
+    }
+
+    // adds the first mean.length values of a packed row starting at offset
+    void add(double[] values, int offset) {
+        count++;
+        for (int i = 0; i < mean.length; i++) {
+            add(i, values[offset + i]);
+        }
+    }
+
+    // adds a sparse row: the values[from..to) of attributes indices[from..to), all others 0
+    void add(double[] values, int[] indices, int from, int to) {
+        count++;
+        for (int j = from; j < to; j++) {
+            add(indices[j], values[j]);
+        }
+    }
+
+    private void add(int attribute, double value) {
+        counts[attribute]++;
+        double delta = value - mean[attribute];
+        mean[attribute] += delta / counts[attribute];
+        m2[attribute] += delta * (value - mean[attribute]);
+    }
+
+    // adds in the statistics of another set of rows (Chan et al.'s pairwise update), e.g. one
+    // gathered on another thread
+    void merge(RunningStatistics other) {
+        count += other.count;
+        for (int i = 0; i < mean.length; i++) {
+            long otherCount = other.counts[i];
+            if (otherCount == 0) {
+                continue;
+            }
+            if (counts[i] == 0) {
+                counts[i] = otherCount;
+                mean[i] = other.mean[i];
+                m2[i] = other.m2[i];
+                continue;
+            }
+            long total = counts[i] + otherCount;
+            double delta = other.mean[i] - mean[i];
+            mean[i] += delta * otherCount / total;
+            m2[i] += other.m2[i] + delta * delta * ((double) counts[i] * otherCount / total);
+            counts[i] = total;
+        }
+    }
+
+    // copies out the means and the standard deviations (sample variance, as Instances.variance uses)
+    void copyTo(double[] means, double[] stds) {
+        for (int i = 0; i < mean.length; i++) {
+            double attributeMean = mean[i];
+            double attributeM2 = m2[i];
+            long zeros = count - counts[i];
+            if (zeros > 0) {
+                attributeMean = mean[i] * counts[i] / count;
+                attributeM2 = m2[i] + mean[i] * mean[i] * ((double) counts[i] * zeros / count);
+            }
+            means[i] = attributeMean;
+            stds[i] = count > 1 ? Math.sqrt(attributeM2 / (count - 1)) : 0;
+        }
+    }
+
+    long count() {
+        return count;
+    }
+}
@@ -0,0 +1,66 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+// A standalone scoring process: loads a ModelFile and labels rows read from standard input, one
+// row of comma-separated feature values per line (a trailing class column is ignored), printing
+// one label per line. It needs only this class, ModelFile, CompiledModel and VectorOps, which use
+// nothing but primitive arrays and the JDK, so a sidecar can run without weka on its class path:
+//
+//   java -cp <classes> Scorer <model file> < rows.csv
+//
+// Nothing is looked up by reflection or loaded by name, so it can also be built ahead of time:
+//   native-image -cp <classes> Scorer scorer
+// or started from a class data sharing archive made by one training run:
+//   java -XX:ArchiveClassesAtExit=scorer.jsa -cp <classes> Scorer <model file> < rows.csv
+//   java -XX:SharedArchiveFile=scorer.jsa -cp <classes> Scorer <model file> < rows.csv
+// StartupBenchmark compares its start up time and memory with the weka path.
+public class Scorer {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.out.println("Usage: java Scorer <model file> < rows");
+            return;
+        }
+        CompiledModel model = ModelFile.load(args[0]);
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        double[] row = new double[0];
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            row = parse(line, row);
+            out.write(Double.toString(model.classify(row)));
+            out.newLine();
+        }
+        out.flush();
+    }
+
+    // the comma-separated values of line, parsed into row when it has the right length
+    static double[] parse(String line, double[] row) {
+        int count = 1;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == ',') {
+                count++;
+            }
+        }
+        if (row.length != count) {
+            row = new double[count];
+        }
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int end = line.indexOf(',', start);
+            if (end < 0) {
+                end = line.length();
+            }
+            row[i] = Double.parseDouble(line.substring(start, end).trim());
+            start = end + 1;
+        }
+        return row;
+    }
+}
@@ -0,0 +1,154 @@
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Compares how long a fresh scoring process takes, and how much memory it peaks at, on the two
+// ways of serving the ensemble:
+//   weka    the Main path: a JVM with weka on its class path parses the ARFF file, trains the
+//           ensemble and classifies the rows
+//   scorer  Scorer: a JVM with only the scoring classes loads the saved model and classifies the
+//           same rows, read as CSV
+// Each is started runs times (default 5) as a child process, from launch to exit; the peak
+// resident memory is sampled from /proc while it runs, so it is only reported on Linux.
+//
+//   java StartupBenchmark [arff] [runs]
+//
+// The arff (default training-data/part2.arff, as Main's ensemble uses) needs a class the
+// ensemble can take. The model and CSV files go in a temporary directory, removed at the end.
+public class StartupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("weka")) {
+            serveWithWeka(args[1]);
+            return;
+        }
+        String arff = args.length > 0 ? args[0] : "training-data/part2.arff";
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Instances instances = Main.loadData(arff);
+        instances.setClassIndex(instances.numAttributes() - 1);
+        LinearPerceptronEnsemble ensemble = new LinearPerceptronEnsemble();
+        ensemble.setSeed(0);
+        ensemble.buildClassifier(instances, 0.5);
+
+        Path directory = Files.createTempDirectory("startup");
+        String model = directory.resolve("ensemble.model").toString();
+        ModelFile.write(ensemble.compile(), model);
+        File rows = directory.resolve("rows.csv").toFile();
+        try (PrintWriter out = new PrintWriter(rows)) {
+            for (Instance instance : instances) {
+                double[] values = instance.toDoubleArray();
+                StringBuilder line = new StringBuilder();
+                for (int i = 0; i < values.length; i++) {
+                    line.append(i == 0 ? "" : ",").append(values[i]);
+                }
+                out.println(line);
+            }
+        }
+
+        String java = ProcessHandle.current().info().command().orElse("java");
+        // the scorer only gets the directory these classes were compiled to, so it can't reach weka
+        String classes = Paths.get(Scorer.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        List<String> weka = List.of(java, "-cp", System.getProperty("java.class.path"), "StartupBenchmark", "weka", arff);
+        List<String> scorer = List.of(java, "-cp", classes, "Scorer", model);
+
+        System.out.printf("%-8s %12s %10s %16s%n", "path", "ms/start", "+-", "peak RSS (KB)");
+        List<String> wekaLabels = labels(run("weka", weka, null, runs));
+        List<String> scorerLabels = labels(run("scorer", scorer, rows, runs));
+        System.out.println(wekaLabels.equals(scorerLabels) ? "Both paths gave the same labels" : "The labels differ");
+
+        rows.delete();
+        Files.delete(Paths.get(model));
+        Files.delete(directory);
+    }
+
+    // what a scoring process on the weka path does
+    private static void serveWithWeka(String arff) throws Exception {
+        Instances instances = Main.loadData(arff);
+        instances.setClassIndex(instances.numAttributes() - 1);
+        LinearPerceptronEnsemble ensemble = new LinearPerceptronEnsemble();
+        ensemble.setSeed(0);
+        ensemble.buildClassifier(instances, 0.5);
+        StringBuilder out = new StringBuilder();
+        for (Instance instance : instances) {
+            out.append(ensemble.classifyInstance(instance)).append(System.lineSeparator());
+        }
+        System.out.print(out);
+    }
+
+    // starts command runs times and prints the mean and spread of its time and peak memory;
+    // returns what the last run printed
+    private static String run(String name, List<String> command, File input, int runs) throws Exception {
+        double[] millis = new double[runs];
+        long peak = -1;
+        String output = "";
+        for (int r = 0; r < runs; r++) {
+            ProcessBuilder builder = new ProcessBuilder(command);
+            if (input != null) {
+                builder.redirectInput(input);
+            }
+            File log = File.createTempFile("startup", ".out");
+            File errors = File.createTempFile("startup", ".err");
+            builder.redirectOutput(log).redirectError(errors);
+
+            long start = System.nanoTime();
+            Process process = builder.start();
+            Path status = Paths.get("/proc/" + process.pid() + "/status");
+            long runPeak = -1;
+            while (process.isAlive()) {
+                runPeak = Math.max(runPeak, highWaterMark(status));
+                Thread.sleep(1);
+            }
+            millis[r] = (System.nanoTime() - start) / 1e6;
+            if (process.exitValue() != 0) {
+                throw new IOException(name + " exited with " + process.exitValue() + ": " + Files.readString(errors.toPath()));
+            }
+            peak = Math.max(peak, runPeak);
+            output = Files.readString(log.toPath());
+            log.delete();
+            errors.delete();
+        }
+
+        double mean = Arrays.stream(millis).average().orElse(0);
+        double variance = Arrays.stream(millis).map(m -> (m - mean) * (m - mean)).sum() / Math.max(1, runs - 1);
+        System.out.printf("%-8s %12.1f %10.1f %16s%n", name, mean, Math.sqrt(variance), peak < 0 ? "n/a" : Long.toString(peak));
+        return output;
+    }
+
+    // the lines of output that are labels, leaving out any warnings weka printed while loading
+    private static List<String> labels(String output) {
+        List<String> labels = new ArrayList<>();
+        for (String line : output.split("\\R")) {
+            try {
+                Double.parseDouble(line);
+                labels.add(line);
+            } catch (NumberFormatException e) {
+                // not a label
+            }
+        }
+        return labels;
+    }
+
+    // the VmHWM (peak resident set) line of a /proc status file in KB, -1 if it can't be read
+    private static long highWaterMark(Path status) {
+        try {
+            for (String line : Files.readAllLines(status)) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // not Linux, or the process has just exited
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,31 @@
+// A hook the classifiers report to while they train and predict, set with setMetrics. It is off
+// (null) by default, and the classifiers only do the timing and the calls when one is set, so
+// with no hook the training loops and predictions run exactly as before. MetricsRecorder keeps
+// the figures for reading back and also sends them to JFR; anything else (a metrics library, a
+// log) can implement this.
+//
+// Calls can come from several threads at once (the ensemble's members, parallel predictions),
+// so implementations have to be thread safe.
+public interface TrainingMetrics {
+
+    // where a build spends its time
+    enum Phase {
+        // packing the instances into a FeatureMatrix
+        LOAD,
+        // gathering the attribute statistics and standardising the packed rows
+        STANDARDISE,
+        // choosing the update mode by k-fold cross validation
+        CROSS_VALIDATE,
+        // the training loop itself
+        TRAIN
+    }
+
+    // a build of classifier spent nanos in phase
+    void phase(String classifier, Phase phase, long nanos);
+
+    // classifier finished a pass over its training rows
+    void epoch(String classifier, EpochMonitor.EpochStatistics epoch);
+
+    // classifier labelled rows rows in nanos, in one classifyInstance or classifyBatch call
+    void prediction(String classifier, int rows, long nanos);
+}
@@ -0,0 +1,84 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// VectorOps' dot products and updates written with the Vector API, the preferred number of lanes
+// at a time up to 256 bits (4 doubles with AVX2 or AVX-512), and a scalar loop for the tail. The API is the
+// incubating jdk.incubator.vector module, which is only there when the JVM is started with
+// --add-modules jdk.incubator.vector; VectorOps checks for it before this class is loaded and
+// otherwise keeps to its scalar loops. The Gradle build adds the flag.
+//
+// A dot product sums one partial sum per lane and adds the lanes up at the end, so like
+// VectorOps.laneDot it may differ from the in-order sum in the last few bits. An update is
+// the same multiply and add per element as the scalar loop, so its result is exactly the same.
+final class VectorKernels {
+
+    // No wider than 256 bits: JDK 17's C2 crashed (SIGSEGV) on the 512-bit gathers with AVX-512,
+    // and on rows of 24 attributes the 512-bit loops were no faster.
+    private static final VectorSpecies<Double> SPECIES =
+            DoubleVector.SPECIES_PREFERRED.vectorBitSize() > 256 ? DoubleVector.SPECIES_256 : DoubleVector.SPECIES_PREFERRED;
+
+    private VectorKernels() {
+    }
+
+    static double dot(double[] weights, double[] values, int offset, int length) {
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector w = DoubleVector.fromArray(SPECIES, weights, i);
+            DoubleVector x = DoubleVector.fromArray(SPECIES, values, offset + i);
+            sum = sum.add(w.mul(x));
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += weights[i] * values[offset + i];
+        }
+        return result;
+    }
+
+    static void axpy(double[] arrayToChange, double adjustment, double[] values, int offset, int length) {
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector w = DoubleVector.fromArray(SPECIES, arrayToChange, i);
+            DoubleVector x = DoubleVector.fromArray(SPECIES, values, offset + i);
+            w.add(x.mul(adjustment)).intoArray(arrayToChange, i);
+        }
+        for (; i < length; i++) {
+            arrayToChange[i] = arrayToChange[i] + (adjustment * values[offset + i]);
+        }
+    }
+
+    // gather variants: lane k reads values[offset + attributes[i + k]]
+    static double dot(double[] weights, double[] values, int offset, int[] attributes) {
+        int length = attributes.length;
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector w = DoubleVector.fromArray(SPECIES, weights, i);
+            DoubleVector x = DoubleVector.fromArray(SPECIES, values, offset, attributes, i);
+            sum = sum.add(w.mul(x));
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += weights[i] * values[offset + attributes[i]];
+        }
+        return result;
+    }
+
+    static void axpy(double[] arrayToChange, double adjustment, double[] values, int offset, int[] attributes) {
+        int length = attributes.length;
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector w = DoubleVector.fromArray(SPECIES, arrayToChange, i);
+            DoubleVector x = DoubleVector.fromArray(SPECIES, values, offset, attributes, i);
+            w.add(x.mul(adjustment)).intoArray(arrayToChange, i);
+        }
+        for (; i < length; i++) {
+            arrayToChange[i] = arrayToChange[i] + (adjustment * values[offset + attributes[i]]);
+        }
+    }
+}
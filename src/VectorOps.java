@@ -0,0 +1,181 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// The two hot kernels shared by the perceptrons: the dot product used to classify a row
+// and the weight update (arrayToChange += adjustment * row).
+//
+// Both work on a row packed into a FeatureMatrix. When the JVM has the jdk.incubator.vector
+// module (--add-modules jdk.incubator.vector, as the Gradle build runs it) the full-width and
+// gather kernels use VectorKernels' Vector API loops, unless -Dperceptron.vector=false; without
+// it they are plain indexed loops, which HotSpot's auto-vectoriser handles for the update. The
+// update gives the same result either way. The dot product keeps the strict left-to-right
+// summation by default so training gives exactly the same weights as before; setting
+// -Dperceptron.laneDot=true switches it to the vector kernel, or without the module to four
+// independent accumulators, which are faster on wide data but may differ from the scalar
+// result in the last few bits. The sparse and opaque variants, and FusedEnsemble's scores,
+// always sum in order. LaneDotCheck bounds the difference and compares the weights each way
+// trains to.
+final class VectorOps {
+
+    private static final boolean LANE_DOT = Boolean.getBoolean("perceptron.laneDot");
+
+    // whether VectorKernels can be used; checked before it's loaded, as it can't be without the module
+    static final boolean VECTOR = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && !"false".equals(System.getProperty("perceptron.vector"));
+
+    private static final VarHandle WEIGHT = MethodHandles.arrayElementVarHandle(double[].class);
+
+    private VectorOps() {
+    }
+
+    static double dot(double[] weights, double[] values, int offset, int length) {
+        return LANE_DOT ? laneDot(weights, values, offset, length) : scalarDot(weights, values, offset, length);
+    }
+
+    static double scalarDot(double[] weights, double[] values, int offset, int length) {
+        double result = 0;
+        for (int i = 0; i < length; i++) {
+            result += weights[i] * values[offset + i];
+        }
+        return result;
+    }
+
+    static double laneDot(double[] weights, double[] values, int offset, int length) {
+        return VECTOR ? VectorKernels.dot(weights, values, offset, length) : unrolledDot(weights, values, offset, length);
+    }
+
+    static double unrolledDot(double[] weights, double[] values, int offset, int length) {
+        double r0 = 0, r1 = 0, r2 = 0, r3 = 0;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            r0 += weights[i] * values[offset + i];
+            r1 += weights[i + 1] * values[offset + i + 1];
+            r2 += weights[i + 2] * values[offset + i + 2];
+            r3 += weights[i + 3] * values[offset + i + 3];
+        }
+        for (; i < length; i++) {
+            r0 += weights[i] * values[offset + i];
+        }
+        return (r0 + r1) + (r2 + r3);
+    }
+
+    static void axpy(double[] arrayToChange, double adjustment, double[] values, int offset, int length) {
+        if (VECTOR) {
+            VectorKernels.axpy(arrayToChange, adjustment, values, offset, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            arrayToChange[i] = arrayToChange[i] + (adjustment * values[offset + i]);
+        }
+    }
+
+    // gather variants for a row restricted to a subset of its attributes (see MatrixView)
+    static double dot(double[] weights, double[] values, int offset, int[] attributes) {
+        return LANE_DOT ? laneDot(weights, values, offset, attributes) : scalarDot(weights, values, offset, attributes);
+    }
+
+    static double scalarDot(double[] weights, double[] values, int offset, int[] attributes) {
+        double result = 0;
+        for (int i = 0; i < attributes.length; i++) {
+            result += weights[i] * values[offset + attributes[i]];
+        }
+        return result;
+    }
+
+    static double laneDot(double[] weights, double[] values, int offset, int[] attributes) {
+        return VECTOR ? VectorKernels.dot(weights, values, offset, attributes) : unrolledDot(weights, values, offset, attributes);
+    }
+
+    static double unrolledDot(double[] weights, double[] values, int offset, int[] attributes) {
+        double r0 = 0, r1 = 0, r2 = 0, r3 = 0;
+        int length = attributes.length;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            r0 += weights[i] * values[offset + attributes[i]];
+            r1 += weights[i + 1] * values[offset + attributes[i + 1]];
+            r2 += weights[i + 2] * values[offset + attributes[i + 2]];
+            r3 += weights[i + 3] * values[offset + attributes[i + 3]];
+        }
+        for (; i < length; i++) {
+            r0 += weights[i] * values[offset + attributes[i]];
+        }
+        return (r0 + r1) + (r2 + r3);
+    }
+
+    static void axpy(double[] arrayToChange, double adjustment, double[] values, int offset, int[] attributes) {
+        if (VECTOR) {
+            VectorKernels.axpy(arrayToChange, adjustment, values, offset, attributes);
+            return;
+        }
+        for (int i = 0; i < attributes.length; i++) {
+            arrayToChange[i] = arrayToChange[i] + (adjustment * values[offset + attributes[i]]);
+        }
+    }
+
+    // Sparse variants for a row of a CSR FeatureMatrix: its non-zero values[from..to), at attributes
+    // indices[from..to). positions maps an attribute to the index of its weight, or -1 for one
+    // that has no weight (see MatrixView); null means every attribute's weight is at its own index.
+    // Only the non-zeros are touched, so these cost O(nnz) rather than O(numFeatures).
+    static double sparseDot(double[] weights, double[] values, int[] indices, int from, int to, int[] positions) {
+        double result = 0;
+        for (int j = from; j < to; j++) {
+            int position = positions == null ? indices[j] : positions[indices[j]];
+            if (position >= 0) {
+                result += weights[position] * values[j];
+            }
+        }
+        return result;
+    }
+
+    static void sparseAxpy(double[] arrayToChange, double adjustment, double[] values, int[] indices, int from, int to,
+                           int[] positions) {
+        for (int j = from; j < to; j++) {
+            int position = positions == null ? indices[j] : positions[indices[j]];
+            if (position >= 0) {
+                arrayToChange[position] = arrayToChange[position] + (adjustment * values[j]);
+            }
+        }
+    }
+
+    // Variants for weights shared by several threads without locks (see LinearPerceptron's
+    // hogwild mode). Opaque access means every read sees a whole value some thread wrote, and
+    // writes become visible to the other threads, but the read-add-write of an update isn't
+    // atomic: when two threads update the same weight at once one of the updates can be lost.
+    // attributes may be null, for the first length attributes of the row in order.
+    static double opaqueDot(double[] weights, double[] values, int offset, int[] attributes, int length) {
+        double result = 0;
+        for (int i = 0; i < length; i++) {
+            result += (double) WEIGHT.getOpaque(weights, i) * values[offset + (attributes == null ? i : attributes[i])];
+        }
+        return result;
+    }
+
+    static void opaqueAxpy(double[] weights, double adjustment, double[] values, int offset, int[] attributes, int length) {
+        for (int i = 0; i < length; i++) {
+            double weight = (double) WEIGHT.getOpaque(weights, i);
+            WEIGHT.setOpaque(weights, i, weight + (adjustment * values[offset + (attributes == null ? i : attributes[i])]));
+        }
+    }
+
+    static double opaqueSparseDot(double[] weights, double[] values, int[] indices, int from, int to, int[] positions) {
+        double result = 0;
+        for (int j = from; j < to; j++) {
+            int position = positions == null ? indices[j] : positions[indices[j]];
+            if (position >= 0) {
+                result += (double) WEIGHT.getOpaque(weights, position) * values[j];
+            }
+        }
+        return result;
+    }
+
+    static void opaqueSparseAxpy(double[] weights, double adjustment, double[] values, int[] indices, int from, int to,
+                                 int[] positions) {
+        for (int j = from; j < to; j++) {
+            int position = positions == null ? indices[j] : positions[indices[j]];
+            if (position >= 0) {
+                double weight = (double) WEIGHT.getOpaque(weights, position);
+                WEIGHT.setOpaque(weights, position, weight + (adjustment * values[j]));
+            }
+        }
+    }
+}
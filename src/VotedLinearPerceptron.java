@@ -0,0 +1,269 @@
+import weka.classifiers.AbstractClassifier;
+import weka.core.Capabilities;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// The voted perceptron: every weight vector the perceptron passes through during training is
+// kept, along with how many row visits it lasted before its next mistake, and a prediction is
+// the sign of the vectors' -1/1 votes weighted by those counts. Vectors that survived long get
+// the most say, so like AveragedLinearPerceptron it gives a usable model after 1-3 epochs on
+// data that isn't separable. The price is one stored vector per mistake, and predictions that
+// cost that many dot products; AveragedLinearPerceptron is the cheap approximation of this.
+// Limited to two classes.
+public class VotedLinearPerceptron extends AbstractClassifier {
+
+    // the kept weight vectors, row-major, numAttributes - 1 per vector
+    private double[] vectors;
+    // how many row visits each vector lasted
+    private int[] survivals;
+    private int numVectors;
+
+    private double learningRate = 1;
+
+    private int numAttributes;
+    private int bias = 0;
+    private int stoppingCondition = 0;
+    // the vote settles within a few passes, so far fewer are allowed than for LinearPerceptron
+    private int maxEpochs = 3;
+    private int plateauPatience = 0;
+
+    private double[] startingWeights;
+    private boolean weightsSet = false;
+    private boolean training = true;
+
+    // one entry per epoch of the last build
+    private List<EpochMonitor.EpochStatistics> epochStatistics = new ArrayList<>();
+
+    @Override
+    public void buildClassifier(Instances instances) throws Exception {
+        getCapabilities().testWithFail(instances);
+
+        buildClassifier(new FeatureMatrix(instances));
+    }
+
+    void buildClassifier(FeatureMatrix matrix) {
+        this.numAttributes = matrix.numFeatures + 1;
+        training = true;
+
+        //set default value for weights if not specified
+        if (!weightsSet) {
+            startingWeights = new double[numAttributes - 1];
+            Arrays.fill(startingWeights, 1);
+        }
+
+        EpochMonitor monitor = new EpochMonitor(matrix.numRows, maxEpochs, plateauPatience, 0);
+        innerBuild(new MatrixView(matrix), monitor);
+        epochStatistics = monitor.statistics();
+        training = false;
+    }
+
+    // Runs the perceptron from the starting weights, keeping each vector it leaves behind on a
+    // mistake. Stops after a full pass with no mistakes, once stoppingCondition rows have been
+    // visited, or when the monitor says so.
+    private void innerBuild(MatrixView view, EpochMonitor monitor) {
+        List<double[]> kept = new ArrayList<>();
+        List<Integer> keptSurvivals = new ArrayList<>();
+        double[] weights = startingWeights.clone();
+        int survival = 1;
+
+        int cont = 0;
+        int x = 0;
+        int runNum = 1;
+        boolean stopped = false;
+
+        double t;
+        double result;
+        double adjustment;
+
+        while (cont != view.numRows && runNum != stoppingCondition) {
+            result = sign(view.dot(weights, x));
+            t = view.target(x);
+            if (result != t) {
+                cont = 0;
+                monitor.mistake();
+                kept.add(weights.clone());
+                keptSurvivals.add(survival);
+                adjustment = (0.5 * (learningRate)) * (t - result);
+                view.axpy(weights, adjustment, x);
+                survival = 1;
+            } else {
+                cont++;
+                survival++;
+            }
+
+            if (x == view.numRows - 1) {
+                stopped = monitor.endEpoch(Double.NaN);
+                if (stopped) {
+                    break;
+                }
+                x = 0;
+            } else {
+                x++;
+            }
+
+            runNum++;
+        }
+        // the pass that was cut short
+        if (!stopped && x != 0) {
+            monitor.endEpoch(Double.NaN, x);
+        }
+        if (runNum == stoppingCondition) {
+            System.out.println("Process cancelled as reached max number of iterations");
+        }
+        kept.add(weights);
+        keptSurvivals.add(survival);
+
+        // one flat array, so a prediction walks the vectors in order
+        int length = numAttributes - 1;
+        numVectors = kept.size();
+        vectors = new double[numVectors * length];
+        survivals = new int[numVectors];
+        for (int k = 0; k < numVectors; k++) {
+            System.arraycopy(kept.get(k), 0, vectors, k * length, length);
+            survivals[k] = keptSurvivals.get(k);
+        }
+    }
+
+    public double classifyInstance(Instance instance) {
+        double[] row = new double[numAttributes - 1];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = instance.value(i);
+        }
+        return classifier(row, 0);
+    }
+
+    // classifies every instance in one call, scoring straight off a packed copy of the rows
+    public double[] classifyBatch(Instances instances) {
+        FeatureMatrix matrix = new FeatureMatrix(instances);
+        double[] labels = new double[matrix.numRows];
+        for (int row = 0; row < matrix.numRows; row++) {
+            if (matrix.isSparse()) {
+                labels[row] = classifier(matrix.values, matrix.indices, matrix.rowStart[row], matrix.rowStart[row + 1]);
+            } else {
+                labels[row] = classifier(matrix.values, matrix.offset(row));
+            }
+        }
+        return labels;
+    }
+
+    // the same for a row of a sparse matrix: its non-zero values[from..to) at attributes
+    // indices[from..to), which each vector is read at directly
+    private double classifier(double[] values, int[] indices, int from, int to) {
+        int length = numAttributes - 1;
+        long vote = 0;
+        for (int k = 0; k < numVectors; k++) {
+            int base = k * length;
+            double result = 0;
+            for (int j = from; j < to; j++) {
+                result += vectors[base + indices[j]] * values[j];
+            }
+            vote += (long) survivals[k] * (long) sign(result);
+        }
+        return vote < 0 ? -1 : vote > 0 ? 1 : 0;
+    }
+
+    // the weighted vote of every kept vector on the row starting at offset in values
+    private double classifier(double[] values, int offset) {
+        int length = numAttributes - 1;
+        // the dot product is symmetric, so the row can stand in for the weights and each vector
+        // be read in place
+        double[] row = offset == 0 && values.length == length ? values : Arrays.copyOfRange(values, offset, offset + length);
+        long vote = 0;
+        for (int k = 0; k < numVectors; k++) {
+            double result = VectorOps.dot(row, vectors, k * length, length);
+            vote += (long) survivals[k] * (long) sign(result);
+        }
+        return vote < 0 ? -1 : vote > 0 ? 1 : 0;
+    }
+
+    private double sign(double result) {
+        if (training) {
+            result = result + bias;
+        }
+
+        if (result < 0) {
+            return -1;
+        } else if (result > 0) {
+            return 1;
+        } else {
+            return 0;
+        }
+    }
+
+    @Override
+    public Capabilities getCapabilities() {
+        Capabilities result = super.getCapabilities();
+        result.disableAll();
+
+        // attributes
+        result.enable(Capabilities.Capability.NUMERIC_ATTRIBUTES);
+        result.enable(Capabilities.Capability.BINARY_ATTRIBUTES);
+
+        // class
+        result.enable(Capabilities.Capability.NUMERIC_CLASS);
+        result.enable(Capabilities.Capability.BINARY_CLASS);
+
+        return result;
+    }
+
+
+    // setters and getters
+    public void setLearningRate(double learningRate) {
+        this.learningRate = learningRate;
+    }
+
+    public void setWeights(double[] weights) {
+        this.startingWeights = weights;
+        weightsSet = true;
+    }
+
+    public void setBias(int bias) {
+        this.bias = bias;
+    }
+
+    public void setStoppingCondition(int stoppingCondition) {
+        this.stoppingCondition = stoppingCondition;
+    }
+
+    public void setMaxEpochs(int maxEpochs) {
+        this.maxEpochs = maxEpochs;
+    }
+
+    public void setPlateauPatience(int plateauPatience) {
+        this.plateauPatience = plateauPatience;
+    }
+
+    public double getLearningRate() {
+        return learningRate;
+    }
+
+    public int getBias() {
+        return bias;
+    }
+
+    public int getStoppingCondition() {
+        return stoppingCondition;
+    }
+
+    public int getMaxEpochs() {
+        return maxEpochs;
+    }
+
+    public int getPlateauPatience() {
+        return plateauPatience;
+    }
+
+    // number of weight vectors that take part in the vote
+    public int getNumVectors() {
+        return numVectors;
+    }
+
+    // mistakes and time of each epoch of the last build
+    public List<EpochMonitor.EpochStatistics> getEpochStatistics() {
+        return epochStatistics;
+    }
+}